@@ -0,0 +1,75 @@
+package com.t9.benchmark;
+
+import com.t9.engine.Word;
+import com.t9.engine.WordSuggester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Suggestions on a dictionary shared by several threads, with and without a thread learning words meanwhile.
+ * WordSuggester runs on the common ForkJoinPool, so the suggesting threads also contend for its workers.
+ *
+ * @author ahmad
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ConcurrentSuggestBenchmark {
+
+    private static final int LENGTH = 4;
+    private static final int DELTA = 1;
+
+    private String[] inputs;
+    private int next;
+
+    @Setup
+    public void setUp(Dictionary dictionary) {
+        inputs = dictionary.inputs(LENGTH);
+        // threads start at different inputs, so they do not suggest in lockstep
+        next = (int) Thread.currentThread().getId() * 7919;
+    }
+
+    private List<Word> suggest(Dictionary dictionary) {
+        String input = inputs[next++ & (Dictionary.SAMPLE_SIZE - 1)];
+        return WordSuggester.suggest(dictionary.trie, input, DELTA).limit(10).collect(Collectors.toList());
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(4)
+    public List<Word> suggest4(Dictionary dictionary) {
+        return suggest(dictionary);
+    }
+
+    @Benchmark
+    @Group("learning")
+    @GroupThreads(3)
+    public List<Word> suggest3(Dictionary dictionary) {
+        return suggest(dictionary);
+    }
+
+    @Benchmark
+    @Group("learning")
+    @GroupThreads(1)
+    public int learn(Dictionary dictionary) {
+        return dictionary.trie.put(dictionary.words[next++ & (Dictionary.SAMPLE_SIZE - 1)]);
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.t9.benchmark;
+
+import com.t9.engine.CharTrie;
+import com.t9.engine.DictionaryImage;
+import com.t9.engine.Word;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+/**
+ * The bundled dictionary, shared by the threads of a benchmark.
+ *
+ * @author ahmad
+ */
+@State(Scope.Benchmark)
+public class Dictionary {
+
+    /**
+     * the number of sampled words, a power of two
+     */
+    static final int SAMPLE_SIZE = 1 << 16;
+
+    private static final String KEYS = "22233344455566677778889999";
+
+    CharTrie trie;
+
+    /**
+     * words of the dictionary, sampled with a fixed seed
+     */
+    String[] words;
+
+    @Setup
+    public void load() throws IOException {
+        trie = DictionaryImage.load();
+        List<String> all = trie.entries().map(Word::getValue).collect(Collectors.toCollection(ArrayList::new));
+        Collections.sort(all);
+        Collections.shuffle(all, new Random(42));
+        words = all.subList(0, Math.min(SAMPLE_SIZE, all.size())).toArray(new String[0]);
+    }
+
+    /**
+     * Returns the key sequences that type the sampled words with the specified length, or random digits
+     * if there is no such word.
+     *
+     * @param length the length of the key sequences
+     * @return SAMPLE_SIZE key sequences
+     */
+    String[] inputs(int length) {
+        List<String> inputs = new ArrayList<>();
+        for (String word : words) {
+            String input = toKeys(word);
+            if (input != null && input.length() == length) {
+                inputs.add(input);
+            }
+        }
+        Random random = new Random(length);
+        String[] sample = new String[SAMPLE_SIZE];
+        for (int i = 0; i < sample.length; i++) {
+            if (inputs.isEmpty()) {
+                char[] digits = new char[length];
+                for (int j = 0; j < length; j++) {
+                    digits[j] = (char) ('2' + random.nextInt(8));
+                }
+                sample[i] = new String(digits);
+            } else {
+                sample[i] = inputs.get(i % inputs.size());
+            }
+        }
+        return sample;
+    }
+
+    private static String toKeys(String word) {
+        char[] keys = new char[word.length()];
+        for (int i = 0; i < keys.length; i++) {
+            char ch = word.charAt(i);
+            if (ch < 'a' || ch > 'z') {
+                return null;
+            }
+            keys[i] = KEYS.charAt(ch - 'a');
+        }
+        return new String(keys);
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.t9.benchmark;
+
+import com.t9.engine.CharTrie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Importing and exporting the whole dictionary, in each of the binary formats.
+ *
+ * @author ahmad
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 2, jvmArgsAppend = "-Xmx2g")
+public class DictionaryIOBenchmark {
+
+    /**
+     * batches: gzipped front-coded batches (exportBinary), blocks: block-compressed file (exportBlocks)
+     */
+    @Param({"batches", "blocks"})
+    public String format;
+
+    private Path src;
+    private Path dest;
+
+    @Setup
+    public void setUp(Dictionary dictionary) throws IOException {
+        src = Files.createTempFile("t9-benchmark-", ".bin");
+        dest = Files.createTempFile("t9-benchmark-", ".bin");
+        export(dictionary.trie, src);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(src);
+        Files.deleteIfExists(dest);
+    }
+
+    private void export(CharTrie trie, Path path) throws IOException {
+        if (format.equals("blocks")) {
+            trie.exportBlocks(path);
+        } else {
+            trie.exportBinary(path);
+        }
+    }
+
+    @Benchmark
+    public CharTrie importBinary() throws IOException {
+        CharTrie trie = new CharTrie();
+        trie.importBinary(src);
+        return trie;
+    }
+
+    @Benchmark
+    public Path exportBinary(Dictionary dictionary) throws IOException {
+        export(dictionary.trie, dest);
+        return dest;
+    }
+
+}
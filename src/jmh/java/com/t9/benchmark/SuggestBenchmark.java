@@ -0,0 +1,77 @@
+package com.t9.benchmark;
+
+import com.t9.engine.Word;
+import com.t9.engine.WordSuggester;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Suggestions for key sequences of words of the dictionary, by input length and delta.
+ * Results are always collected, so that the whole pipeline is measured and not just the generation.
+ *
+ * @author ahmad
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SuggestBenchmark {
+
+    @Param({"1", "2", "4", "6", "8", "12"})
+    public int length;
+
+    @Param({"0", "1", "3"})
+    public int delta;
+
+    private String[] inputs;
+    private int next;
+
+    @Setup
+    public void setUp(Dictionary dictionary) {
+        inputs = dictionary.inputs(length);
+    }
+
+    private String nextInput() {
+        return inputs[next++ & (Dictionary.SAMPLE_SIZE - 1)];
+    }
+
+    /**
+     * all suggestions, sorted
+     */
+    @Benchmark
+    public List<Word> suggest(Dictionary dictionary) {
+        return WordSuggester.suggest(dictionary.trie, nextInput(), delta).collect(Collectors.toList());
+    }
+
+    /**
+     * the first page of suggestions, as the UI shows them
+     */
+    @Benchmark
+    public List<Word> suggestTop10(Dictionary dictionary) {
+        return WordSuggester.suggest(dictionary.trie, nextInput(), delta).limit(10).collect(Collectors.toList());
+    }
+
+    /**
+     * the first page of suggestions, by the best-first iterator
+     */
+    @Benchmark
+    public List<Word> suggestionsTop10(Dictionary dictionary) {
+        return WordSuggester.suggestions(dictionary.trie, nextInput(), delta).next(10);
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.t9.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single word operations of CharTrie.
+ *
+ * @author ahmad
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TrieBenchmark {
+
+    private int next;
+
+    private String nextWord(Dictionary dictionary) {
+        return dictionary.words[next++ & (Dictionary.SAMPLE_SIZE - 1)];
+    }
+
+    /**
+     * increases the frequency of an existing word
+     */
+    @Benchmark
+    public int put(Dictionary dictionary) {
+        return dictionary.trie.put(nextWord(dictionary));
+    }
+
+    @Benchmark
+    public int frequency(Dictionary dictionary) {
+        return dictionary.trie.frequency(nextWord(dictionary));
+    }
+
+    /**
+     * looks up a word that is not in the dictionary, but shares a prefix with one
+     */
+    @Benchmark
+    public int frequencyMiss(Dictionary dictionary) {
+        return dictionary.trie.frequency(nextWord(dictionary) + '#');
+    }
+
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Block-compressed binary dictionary format.
+ * <p>
+ * The dictionary is partitioned by the first character of the words into blocks, each holding the front-coded
+ * records of one subtree of the root, compressed on its own. The header holds a block index (first character,
+ * number of words, highest frequency, offset, compressed length and CRC32 of each block) and is followed by the blocks.
+ * Blocks are compressed in parallel when writing, and decompressed and consumed in parallel when reading;
+ * a corrupted block is detected by its checksum. Since each block can be located through the index,
+ * a single block can also be read on its own, which is how lazily opened CharTries load their shards.
+ * <pre>
+ * magic, version, block count, index CRC32,
+ * index entry * block count: first character, words, highest frequency (since version 2), offset, length, CRC32
+ * block * block count
+ * </pre>
+ *
+ * @author ahmad
+ */
+final class BlockFile {
+
+    static final int MAGIC = 0x54394458; // "T9DX"
+    static final int VERSION = 2;
+
+    private static final int INDEX_ENTRY_SIZE = 2 + 4 + 4 + 8 + 4 + 4;
+    private static final int V1_INDEX_ENTRY_SIZE = 2 + 4 + 8 + 4 + 4;
+
+    private BlockFile() {
+    }
+
+    /**
+     * Writes the specified blocks to the specified file.
+     *
+     * @param dest   the output file
+     * @param blocks the first character of each block, mapped to a visitor of its words
+     * @param pool   the pool whose workers compress the blocks
+     * @return the number of words written
+     * @throws IOException
+     */
+    static long write(Path dest, Map<Character, Consumer<BiConsumer<String, Integer>>> blocks, ForkJoinPool pool)
+            throws IOException {
+        List<Callable<Block>> tasks = new ArrayList<>(blocks.size());
+        for (Map.Entry<Character, Consumer<BiConsumer<String, Integer>>> e : blocks.entrySet()) {
+            tasks.add(() -> compress(e.getKey(), e.getValue()));
+        }
+        List<Block> compressed = invokeAll(pool, tasks);
+
+        int headerSize = 16 + compressed.size() * INDEX_ENTRY_SIZE;
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(MAGIC).putInt(VERSION).putInt(compressed.size()).putInt(0);
+        long offset = headerSize, words = 0;
+        for (Block block : compressed) {
+            header.putChar(block.key).putInt(block.words).putInt(block.maxFrequency).putLong(offset).putInt(block.data.length).putInt(block.crc);
+            offset += block.data.length;
+            words += block.words;
+        }
+        header.putInt(12, checksum(header.array(), 16, headerSize - 16));
+        header.flip();
+
+        try (FileChannel channel = FileChannel.open(dest, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, header);
+            for (Block block : compressed) {
+                writeFully(channel, ByteBuffer.wrap(block.data));
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Reads the blocks of the specified file.
+     *
+     * @param src    the source file
+     * @param action the action to be performed for each word and its frequency,
+     *               which is called concurrently if pool is not null
+     * @param pool   the pool whose workers decompress the blocks, or null to read them sequentially
+     * @throws IOException if the file is truncated or any of its blocks is corrupted
+     */
+    static void read(Path src, BiConsumer<String, Integer> action, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(src, StandardOpenOption.READ)) {
+            List<IndexEntry> index = readIndex(channel);
+            if (pool == null) {
+                for (IndexEntry entry : index) {
+                    decompress(channel, entry, action);
+                }
+            } else {
+                List<Callable<Void>> tasks = new ArrayList<>(index.size());
+                for (IndexEntry entry : index) {
+                    tasks.add(() -> {
+                        decompress(channel, entry, action);
+                        return null;
+                    });
+                }
+                invokeAll(pool, tasks);
+            }
+        }
+    }
+
+    /**
+     * @param src the source file
+     * @return the block index of the specified file
+     * @throws IOException if the file is not a block dictionary file, or its index is corrupted
+     */
+    static List<IndexEntry> readIndex(Path src) throws IOException {
+        try (FileChannel channel = FileChannel.open(src, StandardOpenOption.READ)) {
+            return readIndex(channel);
+        }
+    }
+
+    /**
+     * Reads a single block of the specified file.
+     *
+     * @param src    the source file
+     * @param entry  the index entry of the block, as returned by {@link #readIndex(Path)}
+     * @param action the action to be performed for each word of the block and its frequency
+     * @throws IOException if the file is truncated or the block is corrupted
+     */
+    static void readBlock(Path src, IndexEntry entry, BiConsumer<String, Integer> action) throws IOException {
+        try (FileChannel channel = FileChannel.open(src, StandardOpenOption.READ)) {
+            decompress(channel, entry, action);
+        }
+    }
+
+    private static List<IndexEntry> readIndex(FileChannel channel) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(16);
+        readFully(channel, prefix, 0);
+        prefix.flip();
+        if (prefix.getInt() != MAGIC) {
+            throw new IOException("Not a block dictionary file");
+        }
+        int version = prefix.getInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported dictionary version: " + version);
+        }
+        int count = prefix.getInt();
+        int crc = prefix.getInt();
+        if (count < 0 || count > Character.MAX_VALUE + 1) {
+            throw new IOException("Corrupted dictionary: invalid block count " + count);
+        }
+        ByteBuffer entries = ByteBuffer.allocate(count * (version == 1 ? V1_INDEX_ENTRY_SIZE : INDEX_ENTRY_SIZE));
+        readFully(channel, entries, 16);
+        if (checksum(entries.array(), 0, entries.capacity()) != crc) {
+            throw new IOException("Corrupted dictionary: index checksum mismatch");
+        }
+        entries.flip();
+        List<IndexEntry> index = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // the highest frequency of a version 1 block is unknown, so it is bounded by the largest int
+            IndexEntry entry = new IndexEntry(entries.getChar(), entries.getInt(),
+                    version == 1 ? Integer.MAX_VALUE : entries.getInt(), entries.getLong(), entries.getInt(),
+                    entries.getInt());
+            if (entry.offset < 0 || entry.length < 0 || entry.offset + entry.length > channel.size()) {
+                throw new IOException("Corrupted dictionary: block '" + entry.key + "' out of bounds");
+            }
+            index.add(entry);
+        }
+        return index;
+    }
+
+    private static Block compress(char key, Consumer<BiConsumer<String, Integer>> words) {
+        Object event = EngineEvents.beginBlock();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater();
+        int[] count = {0, 0};
+        try (Output output = new Output(new DeflaterOutputStream(bytes, deflater, 64 * 1024))) {
+            WordSerializer serializer = new WordSerializer();
+            words.accept((v, f) -> {
+                serializer.write(output, v, f);
+                count[0]++;
+                count[1] = Math.max(count[1], f);
+            });
+        } finally {
+            deflater.end();
+        }
+        byte[] data = bytes.toByteArray();
+        EngineEvents.endBlock(event, "compress", key, data.length, count[0]);
+        return new Block(key, count[0], count[1], data, checksum(data, 0, data.length));
+    }
+
+    private static void decompress(FileChannel channel, IndexEntry entry, BiConsumer<String, Integer> action)
+            throws IOException {
+        Object event = EngineEvents.beginBlock();
+        ByteBuffer data = ByteBuffer.allocate(entry.length);
+        readFully(channel, data, entry.offset);
+        if (checksum(data.array(), 0, entry.length) != entry.crc) {
+            throw new IOException("Corrupted dictionary: checksum mismatch in block '" + entry.key + "'");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data.array(), 0, entry.length);
+            Input input = new Input(64 * 1024) {
+                @Override
+                protected int fill(byte[] buffer, int offset, int count) {
+                    try {
+                        int n = inflater.inflate(buffer, offset, count);
+                        return n == 0 && (inflater.finished() || inflater.needsInput()) ? -1 : n;
+                    } catch (DataFormatException e) {
+                        throw new KryoException(e);
+                    }
+                }
+            };
+            WordSerializer serializer = new WordSerializer();
+            for (int i = 0; i < entry.words; i++) {
+                Word word = serializer.read(null, input, Word.class);
+                action.accept(word.getValue(), word.getFrequency());
+            }
+            EngineEvents.endBlock(event, "decompress", entry.key, entry.length, entry.words);
+        } catch (KryoException e) {
+            throw new IOException("Corrupted dictionary: malformed block '" + entry.key + "'", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+        List<ForkJoinTask<T>> futures = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(pool.submit(task));
+        }
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (ForkJoinTask<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            for (ForkJoinTask<T> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return results;
+    }
+
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new EOFException("Corrupted dictionary: unexpected end of file");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static final class Block {
+
+        private final char key;
+        private final int words;
+        private final int maxFrequency;
+        private final byte[] data;
+        private final int crc;
+
+        private Block(char key, int words, int maxFrequency, byte[] data, int crc) {
+            this.key = key;
+            this.words = words;
+            this.maxFrequency = maxFrequency;
+            this.data = data;
+            this.crc = crc;
+        }
+
+    }
+
+    /**
+     * Location and summary of a block.
+     */
+    static final class IndexEntry {
+
+        /**
+         * the first character of the words of the block
+         */
+        final char key;
+
+        /**
+         * the number of words of the block
+         */
+        final int words;
+
+        /**
+         * the highest frequency among the words of the block
+         */
+        final int maxFrequency;
+
+        private final long offset;
+        private final int length;
+        private final int crc;
+
+        private IndexEntry(char key, int words, int maxFrequency, long offset, int length, int crc) {
+            this.key = key;
+            this.words = words;
+            this.maxFrequency = maxFrequency;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+
+    }
+
+}
@@ -20,13 +20,31 @@ import com.esotericsoftware.kryo.Kryo;
 import com.t9.util.serialization.KryoSerializer;
 
 import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -48,7 +66,60 @@ public final class CharTrie {
     /**
      * Pointer to root Node
      */
-    private final Node root = new Node();
+    private final Node root;
+
+    /**
+     * the number of puts that have completed, see {@link #putCount()}
+     */
+    private final LongAdder completedPuts = new LongAdder();
+
+    public CharTrie() {
+        this(new Node());
+    }
+
+    private CharTrie(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns a CharTrie that reads through this CharTrie, and records its own changes in a private layer.
+     * <p>
+     * Words put into the returned CharTrie only add to its layer, so this CharTrie can be shared by any number
+     * of overlays, each costing memory only for the words it has put. Frequencies seen through the overlay are
+     * the sum of both layers, and its Iterators and traversals merge the layers on the fly.
+     * This CharTrie must not change while it has overlays, otherwise they may report stale max frequencies.
+     *
+     * @return a new overlay CharTrie, on top of this CharTrie
+     */
+    public CharTrie overlay() {
+        return new CharTrie(new OverlayNode(root, new Node()));
+    }
+
+    /**
+     * Opens the specified binary dictionary file lazily.
+     * <p>
+     * For files written by {@link #exportBlocks(Path)}, only the block index is read here. The words starting with
+     * a character (a shard) are loaded the first time a traversal reaches that character's Node under the root,
+     * so resident memory tracks the shards actually in use. Shards that have not been modified are only softly
+     * reachable from the root, so the garbage collector may drop cold shards under memory pressure, and they are
+     * loaded again the next time they are reached. A shard that a word is put into stays in memory.
+     * The file must not change while the returned CharTrie is in use.
+     * <p>
+     * Files in the other binary formats are imported eagerly.
+     * If a shard cannot be loaded later on, the traversal reaching it fails with an {@link UncheckedIOException}.
+     *
+     * @param src the source file to be opened
+     * @return a CharTrie backed by the specified file
+     * @throws IOException if the file cannot be read, or its block index is corrupted
+     */
+    public static CharTrie open(Path src) throws IOException {
+        if (!isBlockFile(src)) {
+            CharTrie trie = new CharTrie();
+            trie.importBinary(src);
+            return trie;
+        }
+        return new CharTrie(new LazyRoot(src, BlockFile.readIndex(src)));
+    }
 
     /**
      * Puts the specified word in this CharTrie and increases its frequency.
@@ -57,14 +128,58 @@ public final class CharTrie {
      * @return the previous frequency of the specified word
      */
     public int put(String word) {
+        return put(word, 1);
+    }
+
+    /**
+     * Puts the specified word in this CharTrie and increases its frequency by the specified amount.
+     *
+     * @param word  word to put in this CharTrie
+     * @param count the number of occurrences to add
+     * @return the previous frequency of the specified word
+     */
+    public int put(String word, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be greater than zero.");
+        }
         if (word.isEmpty()) {
             return 0;
         }
-        Node current = root;
-        for (int i = 0; i < word.length(); i++) {
-            current = current.children.computeIfAbsent(word.charAt(i), ch -> new Node());
+        EngineMetrics.getInstance().recordPut();
+        int frequency = put(root, word, 0, count);
+        completedPuts.increment();
+        return frequency;
+    }
+
+    /**
+     * @return the number of puts into this CharTrie that have completed; a traversal begun after this call
+     * sees the words of all of them
+     */
+    long putCount() {
+        return completedPuts.sum();
+    }
+
+    /**
+     * Puts the suffix of the specified word, starting at the specified index, under the specified Node.
+     * The path is walked a second time to raise the max frequencies of its Nodes, rather than kept,
+     * and both walks are iterative, so neither allocation nor stack depth grows with the length of the word.
+     *
+     * @return the previous frequency of the word
+     */
+    private static int put(Node node, String word, int from, int count) {
+        Node current = node;
+        for (int i = from; i < word.length(); i++) {
+            current = current.addChild(word.charAt(i));
+        }
+        int frequency = current.getAndAddFrequency(count);
+        current = node;
+        current.updateMaxFrequency(frequency + count);
+        for (int i = from; i < word.length(); i++) {
+            // the Nodes of the first walk, or overlay views of them, since Nodes are never removed
+            current = current.addChild(word.charAt(i));
+            current.updateMaxFrequency(frequency + count);
         }
-        return current.getAndIncreaseFrequency();
+        return frequency;
     }
 
     /**
@@ -77,9 +192,9 @@ public final class CharTrie {
         }
         Node current = root;
         for (int i = 0; i < word.length() && current != null; i++) {
-            current = current.children.get(word.charAt(i));
+            current = current.child(word.charAt(i));
         }
-        return current == null ? -1 : current.frequency;
+        return current == null ? -1 : current.frequency();
     }
 
     /**
@@ -97,11 +212,56 @@ public final class CharTrie {
         return new Iterator(root);
     }
 
+    /**
+     * Returns a Stream over the words in this CharTrie and their frequencies.
+     * The Stream is sequential, and can be made parallel, in which case it is split by subtrees.
+     *
+     * @return a Stream over the words in this CharTrie
+     */
+    public Stream<Word> entries() {
+        return StreamSupport.stream(new EntrySpliterator(new Traversal(root, "")), false);
+    }
+
+    /**
+     * Returns the memory footprint of this CharTrie, counting only the Nodes in memory: the loaded shards of
+     * a lazily opened CharTrie, and the private layer of an overlay.
+     * The result is a snapshot, which is not consistent with concurrent puts.
+     *
+     * @return node, edge and word counts, and estimated retained bytes of this CharTrie
+     */
+    public MemoryStats memoryStats() {
+        MemoryStats stats = new MemoryStats();
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            int children = 0, uncachedKeys = 0;
+            for (Map.Entry<Character, Node> e : node.residentChildren().entrySet()) {
+                children++;
+                if (e.getKey() > 127) {
+                    uncachedKeys++;
+                }
+                stack.push(e.getValue());
+            }
+            stats.addNode(children, uncachedKeys, node.frequency() > 0);
+        }
+        return stats;
+    }
+
+    /**
+     * @param pool the pool whose workers analyze the subtrees
+     * @return the shape statistics of this CharTrie
+     * @see TrieStatistics#analyze(CharTrie, ForkJoinPool)
+     */
+    TrieStatistics statistics(ForkJoinPool pool) {
+        return pool.invoke(new StatisticsTask(root, 0, 0));
+    }
+
     /**
      * Node in the CharTrie.
      * frequency-children entry
      */
-    private static final class Node {
+    private static class Node {
 
         /**
          * the number of occurrences of the character that is associated to this Node,
@@ -111,18 +271,383 @@ public final class CharTrie {
         private static final AtomicIntegerFieldUpdater<Node> frequencyUpdater
                 = AtomicIntegerFieldUpdater.newUpdater(Node.class, "frequency");
 
+        /**
+         * the highest frequency among the Nodes in the subtree rooted at this Node,
+         * an upper bound used to order best-first traversals
+         */
+        private volatile int maxFrequency = 0;
+        private static final AtomicIntegerFieldUpdater<Node> maxFrequencyUpdater
+                = AtomicIntegerFieldUpdater.newUpdater(Node.class, "maxFrequency");
+
         /**
          * Children of this Node
          */
         private final Map<Character, Node> children = new ConcurrentHashMap<>();
 
         /**
-         * Atomically increments by one the current value of the frequency.
+         * @return the child Node that is associated to the specified character, or null if there isn't such a Node
+         */
+        Node child(char ch) {
+            return children.get(ch);
+        }
+
+        /**
+         * @return the child Node that is associated to the specified character, which is created if absent
+         */
+        Node addChild(char ch) {
+            return children.computeIfAbsent(ch, k -> new Node());
+        }
+
+        /**
+         * @return the children of this Node
+         */
+        Map<Character, Node> children() {
+            return children;
+        }
+
+        /**
+         * @return the children of this Node that are in memory and belong to this CharTrie
+         */
+        Map<Character, Node> residentChildren() {
+            return children;
+        }
+
+        int frequency() {
+            return frequency;
+        }
+
+        int maxFrequency() {
+            return maxFrequency;
+        }
+
+        /**
+         * Atomically adds the given value to the current value of the frequency.
          *
+         * @param delta the value to add
          * @return the previous frequency
          */
-        private int getAndIncreaseFrequency() {
-            return frequencyUpdater.getAndIncrement(this);
+        int getAndAddFrequency(int delta) {
+            return frequencyUpdater.getAndAdd(this, delta);
+        }
+
+        /**
+         * Atomically raises the max frequency of this Node's subtree to the specified value, if it is lower.
+         *
+         * @param frequency the new frequency of a Node in this Node's subtree
+         */
+        void updateMaxFrequency(int frequency) {
+            int current;
+            while ((current = maxFrequency) < frequency) {
+                if (maxFrequencyUpdater.compareAndSet(this, current, frequency)) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Root Node of a lazily opened CharTrie, whose children are the shards of a block dictionary file.
+     * Words starting with a character that has no shard are kept in the inherited children.
+     */
+    private static final class LazyRoot extends Node {
+
+        private final Map<Character, Shard> shards = new HashMap<>();
+
+        private LazyRoot(Path src, List<BlockFile.IndexEntry> index) {
+            for (BlockFile.IndexEntry entry : index) {
+                shards.put(entry.key, new Shard(src, entry));
+                updateMaxFrequency(entry.maxFrequency);
+            }
+        }
+
+        @Override
+        Node child(char ch) {
+            Shard shard = shards.get(ch);
+            return shard == null ? super.child(ch) : shard.getValue();
+        }
+
+        @Override
+        Node addChild(char ch) {
+            Shard shard = shards.get(ch);
+            return shard == null ? super.addChild(ch) : shard.pin();
+        }
+
+        /**
+         * @return a view of the shards and the other children, in which a shard is loaded once its value is taken
+         */
+        @Override
+        Map<Character, Node> children() {
+            Map<Character, Node> others = super.children();
+            return new AbstractMap<Character, Node>() {
+                @Override
+                public Set<Entry<Character, Node>> entrySet() {
+                    return new AbstractSet<Entry<Character, Node>>() {
+                        @Override
+                        public java.util.Iterator<Entry<Character, Node>> iterator() {
+                            java.util.Iterator<Shard> loadable = shards.values().iterator();
+                            java.util.Iterator<Entry<Character, Node>> loaded = others.entrySet().iterator();
+                            return new java.util.Iterator<Entry<Character, Node>>() {
+                                @Override
+                                public boolean hasNext() {
+                                    return loadable.hasNext() || loaded.hasNext();
+                                }
+
+                                @Override
+                                public Entry<Character, Node> next() {
+                                    return loadable.hasNext() ? loadable.next() : loaded.next();
+                                }
+                            };
+                        }
+
+                        @Override
+                        public int size() {
+                            return shards.size() + others.size();
+                        }
+                    };
+                }
+            };
+        }
+
+        @Override
+        Map<Character, Node> residentChildren() {
+            Map<Character, Node> children = new HashMap<>(super.children());
+            for (Shard shard : shards.values()) {
+                Node node = shard.loaded();
+                if (node != null) {
+                    children.put(shard.getKey(), node);
+                }
+            }
+            return children;
+        }
+
+    }
+
+    /**
+     * The subtree of the words starting with a character, which is loaded from its block on demand.
+     * It is softly referenced until it gets pinned by a put.
+     */
+    private static final class Shard implements Map.Entry<Character, Node> {
+
+        private final Path src;
+        private final BlockFile.IndexEntry entry;
+
+        private volatile SoftReference<Node> cached = new SoftReference<>(null);
+        private volatile Node pinned;
+
+        private Shard(Path src, BlockFile.IndexEntry entry) {
+            this.src = src;
+            this.entry = entry;
+        }
+
+        @Override
+        public Character getKey() {
+            return entry.key;
+        }
+
+        /**
+         * @return the root Node of this shard, which is loaded if it is not in memory
+         * @throws UncheckedIOException if this shard cannot be loaded
+         */
+        @Override
+        public Node getValue() {
+            Node node = pinned;
+            if (node == null && (node = cached.get()) == null) {
+                synchronized (this) {
+                    if ((node = pinned) == null && (node = cached.get()) == null) {
+                        node = load();
+                        cached = new SoftReference<>(node);
+                    }
+                }
+            }
+            return node;
+        }
+
+        @Override
+        public Node setValue(Node value) {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @return the root Node of this shard, or null if it is not in memory
+         */
+        private Node loaded() {
+            Node node = pinned;
+            return node != null ? node : cached.get();
+        }
+
+        /**
+         * Keeps this shard in memory from now on, since it is about to be modified.
+         *
+         * @return the root Node of this shard
+         */
+        private Node pin() {
+            Node node = pinned;
+            if (node == null) {
+                synchronized (this) {
+                    if ((node = pinned) == null) {
+                        pinned = node = getValue();
+                    }
+                }
+            }
+            return node;
+        }
+
+        private Node load() {
+            Node node = new Node();
+            try {
+                BlockFile.readBlock(src, entry, (v, f) -> {
+                    if (v.isEmpty() || v.charAt(0) != entry.key || f < 1) {
+                        throw new UncheckedIOException(new IOException(
+                                "Corrupted dictionary: invalid word in block '" + entry.key + "'"));
+                    }
+                    put(node, v, 1, f);
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return node;
+        }
+
+    }
+
+    /**
+     * Merged view of a Node of a shared base CharTrie and the Node of an overlay's layer at the same position.
+     * <p>
+     * The layer holds the frequency deltas, and the merged max frequencies of the subtrees it has touched,
+     * so the max frequency of the view is the higher of the two.
+     * Views are created while moving down and are not retained; below a position that only one of the layers has,
+     * that layer's Nodes are used directly.
+     */
+    private static final class OverlayNode extends Node {
+
+        private final Node base;
+        private final Node layer;
+
+        private OverlayNode(Node base, Node layer) {
+            this.base = base;
+            this.layer = layer;
+        }
+
+        private static Node merge(Node base, Node layer) {
+            return base == null ? layer : layer == null ? base : new OverlayNode(base, layer);
+        }
+
+        @Override
+        Node child(char ch) {
+            return merge(base.child(ch), layer.child(ch));
+        }
+
+        @Override
+        Node addChild(char ch) {
+            return merge(base.child(ch), layer.addChild(ch));
+        }
+
+        @Override
+        Map<Character, Node> children() {
+            Map<Character, Node> children = new HashMap<>();
+            for (Map.Entry<Character, Node> e : base.children().entrySet()) {
+                children.put(e.getKey(), merge(e.getValue(), layer.child(e.getKey())));
+            }
+            for (Map.Entry<Character, Node> e : layer.children().entrySet()) {
+                children.putIfAbsent(e.getKey(), e.getValue());
+            }
+            return children;
+        }
+
+        /**
+         * @return the children of the layer, since the base is shared
+         */
+        @Override
+        Map<Character, Node> residentChildren() {
+            return layer.residentChildren();
+        }
+
+        @Override
+        int frequency() {
+            return base.frequency() + layer.frequency();
+        }
+
+        @Override
+        int maxFrequency() {
+            return Math.max(base.maxFrequency(), layer.maxFrequency());
+        }
+
+        @Override
+        int getAndAddFrequency(int delta) {
+            return base.frequency() + layer.getAndAddFrequency(delta);
+        }
+
+        @Override
+        void updateMaxFrequency(int frequency) {
+            layer.updateMaxFrequency(frequency);
+        }
+
+    }
+
+    /**
+     * Computes the statistics of a subtree, forking a task per child down to a fixed depth,
+     * and walking the deeper subtrees iteratively.
+     */
+    private static final class StatisticsTask extends RecursiveTask<TrieStatistics> {
+
+        private static final int FORK_DEPTH = 2;
+
+        private final Node node;
+        private final int depth;
+
+        /**
+         * the length of the single-child chain that ends at the parent of the Node, if any
+         */
+        private final int chain;
+
+        private StatisticsTask(Node node, int depth, int chain) {
+            this.node = node;
+            this.depth = depth;
+            this.chain = chain;
+        }
+
+        @Override
+        protected TrieStatistics compute() {
+            TrieStatistics statistics = new TrieStatistics();
+            if (depth < FORK_DEPTH) {
+                Map<Character, Node> children = node.children();
+                int chain = visit(statistics, node, children.size(), depth, this.chain);
+                List<StatisticsTask> tasks = new ArrayList<>(children.size());
+                for (Node child : children.values()) {
+                    tasks.add(new StatisticsTask(child, depth + 1, chain));
+                }
+                for (StatisticsTask task : invokeAll(tasks)) {
+                    statistics.merge(task.join());
+                }
+                return statistics;
+            }
+            Deque<StatisticsTask> stack = new ArrayDeque<>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                StatisticsTask frame = stack.pop();
+                Map<Character, Node> children = frame.node.children();
+                int chain = visit(statistics, frame.node, children.size(), frame.depth, frame.chain);
+                for (Node child : children.values()) {
+                    stack.push(new StatisticsTask(child, frame.depth + 1, chain));
+                }
+            }
+            return statistics;
+        }
+
+        /**
+         * Accounts for a Node.
+         *
+         * @return the length of the chain that ends at the Node, or 0 if it is not in a chain
+         */
+        private static int visit(TrieStatistics statistics, Node node, int fanOut, int depth, int chain) {
+            boolean terminal = node.frequency() > 0;
+            statistics.addNode(depth, fanOut, terminal);
+            boolean chained = depth > 0 && fanOut == 1 && !terminal;
+            if (!chained && chain > 0) {
+                statistics.addChain(chain);
+            }
+            return chained ? chain + 1 : 0;
         }
 
     }
@@ -150,7 +675,7 @@ public final class CharTrie {
          * @return true if the current Node's children contains the specified character
          */
         public boolean next(char ch) {
-            Node next = current.children.get(ch);
+            Node next = current.child(ch);
             if (next == null) {
                 return false;
             }
@@ -162,7 +687,14 @@ public final class CharTrie {
          * @return the current frequency of the current Node
          */
         public int frequency() {
-            return current.frequency;
+            return current.frequency();
+        }
+
+        /**
+         * @return the highest frequency among the words starting with the current Node's prefix
+         */
+        public int maxFrequency() {
+            return current.maxFrequency();
         }
 
         /**
@@ -177,79 +709,441 @@ public final class CharTrie {
     }
 
     /**
-     * Exports this CharTrie's dictionary as binary object to the specified file.
+     * Iterative depth-first traversal of a subtree, building the words in a single shared char buffer.
+     * Strings are only created for the words that are actually visited.
+     */
+    private static final class Traversal {
+
+        /**
+         * the root of the subtree and the word it represents
+         */
+        private final Node node;
+        private final String prefix;
+
+        private StringBuilder word;
+        private final Deque<java.util.Iterator<Map.Entry<Character, Node>>> stack = new ArrayDeque<>();
+
+        private Traversal(Node node, String prefix) {
+            this.node = node;
+            this.prefix = prefix;
+        }
+
+        /**
+         * Moves to the next word of the subtree.
+         *
+         * @param action the action to be performed for the next word and its frequency
+         * @return false if there is no next word
+         */
+        private boolean advance(BiConsumer<String, Integer> action) {
+            if (word == null) {
+                word = new StringBuilder(prefix);
+                stack.push(node.children().entrySet().iterator());
+                int frequency = node.frequency();
+                if (frequency > 0) {
+                    action.accept(prefix, frequency);
+                    return true;
+                }
+            }
+            while (!stack.isEmpty()) {
+                java.util.Iterator<Map.Entry<Character, Node>> children = stack.peek();
+                if (!children.hasNext()) {
+                    stack.pop();
+                    if (!stack.isEmpty()) {
+                        word.setLength(word.length() - 1);
+                    }
+                    continue;
+                }
+                Map.Entry<Character, Node> e = children.next();
+                Node child = e.getValue();
+                int frequency = child.frequency();
+                word.append(e.getKey().charValue());
+                if (child.children().isEmpty()) {
+                    // leaf, there is nothing to push
+                    String value = frequency > 0 ? word.toString() : null;
+                    word.setLength(word.length() - 1);
+                    if (value != null) {
+                        action.accept(value, frequency);
+                        return true;
+                    }
+                    continue;
+                }
+                stack.push(child.children().entrySet().iterator());
+                if (frequency > 0) {
+                    action.accept(word.toString(), frequency);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Splits this not yet started traversal into a traversal per child.
+         *
+         * @param words       receives the word of the subtree's root, if any
+         * @param traversals receives the children's traversals
+         */
+        private void expand(Deque<Word> words, Deque<Traversal> traversals) {
+            int frequency = node.frequency();
+            if (frequency > 0) {
+                words.add(new Word(prefix, frequency));
+            }
+            for (Map.Entry<Character, Node> e : node.children().entrySet()) {
+                traversals.add(new Traversal(e.getValue(), prefix + e.getKey()));
+            }
+        }
+
+    }
+
+    /**
+     * Spliterator over the words of subtrees, which is split by handing over whole subtrees.
+     */
+    private static final class EntrySpliterator implements Spliterator<Word> {
+
+        private final Deque<Word> words = new ArrayDeque<>();
+        private final Deque<Traversal> traversals = new ArrayDeque<>();
+        private Traversal current;
+        private long estimatedSize = Long.MAX_VALUE;
+
+        private EntrySpliterator(Traversal traversal) {
+            traversals.add(traversal);
+        }
+
+        private EntrySpliterator(long estimatedSize) {
+            this.estimatedSize = estimatedSize;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Word> action) {
+            Word word = words.poll();
+            if (word != null) {
+                action.accept(word);
+                return true;
+            }
+            BiConsumer<String, Integer> wordAction = (v, f) -> action.accept(new Word(v, f));
+            while (current != null || (current = traversals.poll()) != null) {
+                if (current.advance(wordAction)) {
+                    return true;
+                }
+                current = null;
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Word> action) {
+            Word word;
+            while ((word = words.poll()) != null) {
+                action.accept(word);
+            }
+            BiConsumer<String, Integer> wordAction = (v, f) -> action.accept(new Word(v, f));
+            while (current != null || (current = traversals.poll()) != null) {
+                while (current.advance(wordAction)) ;
+                current = null;
+            }
+        }
+
+        @Override
+        public Spliterator<Word> trySplit() {
+            if (current == null) {
+                while (traversals.size() == 1) {
+                    traversals.poll().expand(words, traversals);
+                }
+            }
+            int n = current == null ? traversals.size() / 2 : (traversals.size() + 1) / 2;
+            if (n == 0) {
+                return null;
+            }
+            EntrySpliterator prefix = new EntrySpliterator(estimatedSize >>>= 1);
+            for (int i = 0; i < n; i++) {
+                prefix.traversals.add(traversals.poll());
+            }
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimatedSize;
+        }
+
+        @Override
+        public int characteristics() {
+            return DISTINCT | NONNULL;
+        }
+
+    }
+
+    /**
+     * Text formats of exported dictionaries.
+     */
+    public enum TextFormat {
+
+        /**
+         * one word per line, repeated once per occurrence
+         */
+        LINES {
+            @Override
+            void write(Writer writer, String word, int frequency) throws IOException {
+                for (int i = frequency; i > 0; i--) {
+                    writer.write(word);
+                    writer.write('\n');
+                }
+            }
+        },
+
+        /**
+         * one word per line, followed by a TAB and its frequency
+         */
+        COUNTS {
+            @Override
+            void write(Writer writer, String word, int frequency) throws IOException {
+                writer.write(word);
+                writer.write('\t');
+                writer.write(Integer.toString(frequency));
+                writer.write('\n');
+            }
+        };
+
+        abstract void write(Writer writer, String word, int frequency) throws IOException;
+
+    }
+
+    /**
+     * Exports this CharTrie's dictionary as binary to the specified file.
+     * Words are written in batches while traversing this CharTrie, so memory usage does not grow with its size.
      *
      * @param dest the output file
      * @throws IOException
      */
     public void exportBinary(Path dest) throws IOException {
-        List<Word> words = new ArrayList<>();
-        move(root, "", (v, f) -> words.add(new Word(v, f)));
+        exportBinary(root, dest, "exportBinary");
+    }
+
+    /**
+     * Exports the words of this CharTrie as binary to the specified file, like {@link #exportBinary(Path)},
+     * except that an overlay exports only its layer: the frequencies put through it, which can be imported
+     * into a new overlay of the same base to restore it.
+     *
+     * @param dest the output file
+     * @throws IOException
+     */
+    void exportLayer(Path dest) throws IOException {
+        exportBinary(root instanceof OverlayNode ? ((OverlayNode) root).layer : root, dest, "exportLayer");
+    }
 
-        try (GZIPOutputStream outputStream = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(dest.toFile())))) {
-            WORD_LIST_SERIALIZER.write(words, outputStream);
+    private static void exportBinary(Node node, Path dest, String operation) throws IOException {
+        Object event = EngineEvents.beginDictionaryIO();
+        long[] words = {0};
+        try (WordBatches.Writer writer = binaryWriter(dest)) {
+            move(node, "", (v, f) -> {
+                try {
+                    writer.write(v, f);
+                    words[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (event != null) {
+            EngineEvents.endDictionaryIO(event, operation, dest.toString(), Files.size(dest), words[0]);
         }
     }
 
     /**
-     * Exports this CharTrie's dictionary as text to the specified file.
+     * Exports this CharTrie's dictionary to the specified file as independently compressed blocks,
+     * one per first character, which are compressed in parallel.
+     *
+     * @param dest the output file
+     * @throws IOException
+     */
+    public void exportBlocks(Path dest) throws IOException {
+        exportBlocks(dest, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Exports this CharTrie's dictionary to the specified file as independently compressed blocks,
+     * one per first character, which are compressed by the workers of the specified pool.
+     *
+     * @param dest the output file
+     * @param pool the pool whose workers compress the blocks
+     * @throws IOException
+     */
+    public void exportBlocks(Path dest, ForkJoinPool pool) throws IOException {
+        Map<Character, Consumer<BiConsumer<String, Integer>>> blocks = new TreeMap<>();
+        for (char ch : root.children().keySet()) {
+            // the child is looked up by the worker, so shards of a lazily opened CharTrie are loaded one at a time
+            blocks.put(ch, action -> move(root.child(ch), String.valueOf(ch), action));
+        }
+        Object event = EngineEvents.beginDictionaryIO();
+        long words = BlockFile.write(dest, blocks, pool);
+        if (event != null) {
+            EngineEvents.endDictionaryIO(event, "exportBlocks", dest.toString(), Files.size(dest), words);
+        }
+    }
+
+    /**
+     * Exports this CharTrie's dictionary as text to the specified file, each word repeated once per occurrence.
      *
      * @param dest the output file
      * @throws IOException
      */
     public void exportDictionary(Path dest) throws IOException {
-        try (final BufferedWriter writer = new BufferedWriter(new FileWriter(dest.toFile()))) {
+        exportDictionary(dest, TextFormat.LINES);
+    }
+
+    /**
+     * Exports this CharTrie's dictionary as UTF-8 text in the specified format to the specified file.
+     * Words are written while traversing this CharTrie.
+     *
+     * @param dest   the output file
+     * @param format the text format
+     * @throws IOException
+     */
+    public void exportDictionary(Path dest, TextFormat format) throws IOException {
+        try (final BufferedWriter writer = Files.newBufferedWriter(dest, StandardCharsets.UTF_8)) {
             move(root, "", (v, f) -> {
                 try {
-                    for (int i = f; i > 0; i--) {
-                        writer.write(v);
-                        writer.newLine();
-                    }
+                    format.write(writer, v, f);
                 } catch (IOException e) {
-                    throw new Error(e);
+                    throw new UncheckedIOException(e);
                 }
             });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
     }
 
     private static void move(Node node, String word, BiConsumer<String, Integer> action) {
-        if (node.frequency > 0) {
-            action.accept(word, node.frequency);
-        }
-        for (Map.Entry<Character, Node> e : node.children.entrySet()) {
-            move(e.getValue(), word + e.getKey(), action);
-        }
+        Traversal traversal = new Traversal(node, word);
+        while (traversal.advance(action)) ;
     }
 
     /**
      * Imports dictionary from the specified binary file to this CharTrie.
+     * Words are inserted batch by batch as they are read, or block by block in parallel for files written by
+     * {@link #exportBlocks(Path)}. Files written by older versions, as a single serialized word list,
+     * are still accepted.
      *
      * @param src the source file to be imported
      * @throws IOException
      */
     public void importBinary(Path src) throws IOException {
-        try (GZIPInputStream inputStream = new GZIPInputStream(new BufferedInputStream(new FileInputStream(src.toFile())))) {
-            for (Word word : WORD_LIST_SERIALIZER.read(inputStream)) {
-                for (int i = word.getFrequency(); i > 0; i--) {
-                    put(word.getValue());
+        importBinary(src, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Imports dictionary from the specified binary file to this CharTrie.
+     * Blocks of files written by {@link #exportBlocks(Path)} are decompressed and inserted
+     * by the workers of the specified pool.
+     *
+     * @param src  the source file to be imported
+     * @param pool the pool whose workers import the blocks
+     * @throws IOException
+     */
+    public void importBinary(Path src, ForkJoinPool pool) throws IOException {
+        importBinary(src, null, pool);
+    }
+
+    /**
+     * Imports the words of the specified binary file that match the specified filter to this CharTrie.
+     * The file is read as by {@link #importBinary(Path)}, and the other words are dropped as they are read,
+     * so the whole dictionary is never held in memory.
+     *
+     * @param src    the source file to be imported
+     * @param filter the words to be imported
+     * @throws IOException
+     */
+    public void importBinary(Path src, Predicate<? super String> filter) throws IOException {
+        importBinary(src, filter, ForkJoinPool.commonPool());
+    }
+
+    private void importBinary(Path src, Predicate<? super String> filter, ForkJoinPool pool) throws IOException {
+        Object event = EngineEvents.beginDictionaryIO();
+        LongAdder words = event == null ? null : new LongAdder();
+        BiConsumer<String, Integer> put = words == null ? this::put : (v, f) -> {
+            put(v, f);
+            words.increment();
+        };
+        BiConsumer<String, Integer> action = filter == null ? put : (v, f) -> {
+            if (filter.test(v)) {
+                put.accept(v, f);
+            }
+        };
+        if (isBlockFile(src)) {
+            BlockFile.read(src, action, pool);
+        } else {
+            readBinary(src, action);
+        }
+        if (event != null) {
+            EngineEvents.endDictionaryIO(event, "importBinary", src.toString(), Files.size(src), words.sum());
+        }
+    }
+
+    private static boolean isBlockFile(Path src) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(Files.newInputStream(src))) {
+            return inputStream.readInt() == BlockFile.MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param dest the output file
+     * @return a Writer of the words of a binary dictionary to the specified file
+     * @throws IOException
+     */
+    static WordBatches.Writer binaryWriter(Path dest) throws IOException {
+        return new WordBatches.Writer(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(dest.toFile()))));
+    }
+
+    /**
+     * Reads the words of the specified binary dictionary, in any of the binary formats, sequentially.
+     *
+     * @param src    the source file to be read
+     * @param action the action to be performed for each word and its frequency
+     * @throws IOException
+     */
+    static void readBinary(Path src, BiConsumer<String, Integer> action) throws IOException {
+        if (isBlockFile(src)) {
+            BlockFile.read(src, action, null);
+            return;
+        }
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(src.toFile()))))) {
+            inputStream.mark(4);
+            if (inputStream.readInt() == WordBatches.MAGIC) {
+                WordBatches.read(inputStream, action);
+            } else {
+                inputStream.reset();
+                for (Word word : WORD_LIST_SERIALIZER.read(inputStream)) {
+                    action.accept(word.getValue(), word.getFrequency());
                 }
             }
         }
     }
 
     /**
-     * Imports dictionary from the specified text file to this CharTrie.
+     * Imports dictionary from the specified UTF-8 text file to this CharTrie, in parallel.
+     * Both {@link TextFormat}s are detected line by line, so files in either format (or mixed) are accepted.
      *
      * @param src the source file to be imported
      * @throws IOException
      */
     public void importDictionary(Path src) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(src.toFile()))) {
-            String word;
-            while ((word = reader.readLine()) != null) {
-                put(word);
-            }
-        }
+        importDictionary(src, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Imports dictionary from the specified UTF-8 text file to this CharTrie,
+     * splitting the work among the workers of the specified pool.
+     *
+     * @param src  the source file to be imported
+     * @param pool the pool whose workers import the file chunks
+     * @throws IOException
+     */
+    public void importDictionary(Path src, ForkJoinPool pool) throws IOException {
+        DictionaryImporter.importDictionary(src, this, pool);
     }
 
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * Precompiled images of bundled dictionaries.
+ * <p>
+ * The build runs {@link #main(String[])} over the bundled dictionary, which writes it as a block file
+ * (see {@link CharTrie#exportBlocks(Path)}) next to it on the classpath. The image is named after the CRC32 of
+ * the dictionary it was compiled from, so an image of an older dictionary is never picked up by mistake.
+ * {@link #load(String)} imports the image of a dictionary, if there is an up to date one,
+ * and imports the dictionary itself otherwise.
+ *
+ * @author ahmad
+ */
+public final class DictionaryImage {
+
+    /**
+     * the bundled dictionary
+     */
+    public static final String DICTIONARY = "/dictionary.bin";
+
+    private DictionaryImage() {
+    }
+
+    /**
+     * Compiles a binary dictionary file into its image.
+     *
+     * @param args the dictionary file, and the directory of the image
+     * @throws IOException
+     * @throws IllegalArgumentException if the arguments are not a file and a directory; the build may run this
+     *                                  method inside its own JVM, so it throws rather than exits
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: DictionaryImage <dictionary file> <output directory>");
+        }
+        Path src = Paths.get(args[0]);
+        Path dest = Paths.get(args[1]).resolve(imageName(src.getFileName().toString(), checksum(src)));
+        CharTrie trie = new CharTrie();
+        trie.importBinary(src);
+        trie.exportBlocks(dest);
+        System.out.println("Compiled " + src + " into " + dest);
+    }
+
+    /**
+     * Loads the bundled dictionary.
+     *
+     * @return a CharTrie containing the words of the bundled dictionary
+     * @throws IOException
+     * @see #load(String)
+     */
+    public static CharTrie load() throws IOException {
+        return load(DICTIONARY);
+    }
+
+    /**
+     * Loads the binary dictionary with the specified resource name from its image,
+     * or from the dictionary itself if the image is missing or has been compiled from another version of it.
+     *
+     * @param resource the absolute resource name of the dictionary
+     * @return a CharTrie containing the words of the dictionary
+     * @throws IOException if the dictionary is not found, or cannot be read
+     */
+    public static CharTrie load(String resource) throws IOException {
+        return importResource(resource, null);
+    }
+
+    /**
+     * Loads the words of the binary dictionary with the specified resource name that match the specified filter,
+     * as {@link #load(String)} does, dropping the other words as they are read.
+     *
+     * @param resource the absolute resource name of the dictionary
+     * @param filter   the words to be loaded
+     * @return a CharTrie containing the words of the dictionary that match the filter
+     * @throws IOException if the dictionary is not found, or cannot be read
+     */
+    public static CharTrie load(String resource, Predicate<? super String> filter) throws IOException {
+        return importResource(resource, filter);
+    }
+
+    /**
+     * @param filter the words to be loaded, or null for all of them
+     */
+    private static CharTrie importResource(String resource, Predicate<? super String> filter) throws IOException {
+        URL url = DictionaryImage.class.getResource(resource);
+        if (url == null) {
+            throw new IOException("Dictionary not found: " + resource);
+        }
+        CharTrie trie = new CharTrie();
+        Path src = toPath(url);
+        try {
+            URL image = DictionaryImage.class.getResource(imageName(resource, checksum(src)));
+            Path imagePath = image == null ? src : toPath(image);
+            try {
+                if (filter == null) {
+                    trie.importBinary(imagePath);
+                } else {
+                    trie.importBinary(imagePath, filter);
+                }
+            } finally {
+                if (image != null) {
+                    deleteCopy(image, imagePath);
+                }
+            }
+        } finally {
+            deleteCopy(url, src);
+        }
+        return trie;
+    }
+
+    /**
+     * @return the name of the image of the dictionary with the specified name and checksum
+     */
+    static String imageName(String dictionary, int checksum) {
+        int dot = dictionary.lastIndexOf('.');
+        String base = dot > dictionary.lastIndexOf('/') ? dictionary.substring(0, dot) : dictionary;
+        return String.format("%s-%08x.blk", base, checksum);
+    }
+
+    private static int checksum(Path src) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream inputStream = Files.newInputStream(src)) {
+            int n;
+            while ((n = inputStream.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the path of the specified resource, which is copied to a temporary file if it is not a file itself,
+     * e.g. when it is packed in a jar, to be deleted by {@link #deleteCopy(URL, Path)} once imported
+     */
+    private static Path toPath(URL url) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return Paths.get(url.toURI());
+            } catch (URISyntaxException e) {
+                throw new IOException(e);
+            }
+        }
+        Path tmp = Files.createTempFile("t9-", ".dictionary");
+        try (InputStream inputStream = url.openStream()) {
+            Files.copy(inputStream, tmp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        return tmp;
+    }
+
+    /**
+     * Deletes the specified path of the specified resource if it is a temporary copy made by {@link #toPath(URL)}.
+     */
+    private static void deleteCopy(URL url, Path path) throws IOException {
+        if (!"file".equals(url.getProtocol())) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+}
@@ -0,0 +1,368 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Per-tenant learned dictionaries, loaded on demand and evicted under a memory budget.
+ * <p>
+ * Each tenant has a CharTrie of its own, persisted in the directory of the manager as a binary dictionary named
+ * after the tenant. If the manager has a base CharTrie, tenants are overlays of it (see {@link CharTrie#overlay()}),
+ * and only the words they have learned are persisted and held in memory.
+ * <p>
+ * A tenant is loaded the first time it is asked for; concurrent requests for a tenant that is loading wait for
+ * the same load. The retained bytes of each resident tenant are tracked, measured when it is loaded and bounded
+ * from above as it learns words. Once the total exceeds the budget, the bounds of the tenants that have grown by
+ * more than a quarter since they were last measured are replaced by measurements, and if the total still exceeds
+ * it, the least recently used tenants are persisted and evicted until it does not. So a tenant is measured again
+ * only after a geometric growth, and the cost of measuring it is amortized over the words it has learned.
+ * The most recently used tenant is never evicted, so a tenant larger than the budget still works; while it is
+ * the only resident tenant, its learns do not check the budget at all.
+ *
+ * @author ahmad
+ */
+public final class DictionaryManager implements Closeable {
+
+    private static final Pattern TENANT_ID = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    /**
+     * a tenant is measured again once its bounded bytes exceed the last measurement by more than 1 / this
+     */
+    private static final int REMEASURE_GROWTH = 4;
+
+    private final Path directory;
+    private final CharTrie base;
+    private final long budgetBytes;
+
+    private final Map<String, CompletableFuture<Tenant>> tenants = new ConcurrentHashMap<>();
+    private final AtomicLong residentBytes = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final Object evictionLock = new Object();
+    private volatile boolean closed;
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalescedLoads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param directory   the directory the tenants are persisted in, which is created if it does not exist
+     * @param base        the dictionary shared by all tenants, which must not change while the manager is in use,
+     *                    or null for tenants to start empty
+     * @param budgetBytes the estimated bytes that resident tenants may retain
+     * @throws IOException if the directory cannot be created
+     */
+    public DictionaryManager(Path directory, CharTrie base, long budgetBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.base = base;
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Returns the dictionary of the specified tenant, loading it if it is not resident.
+     * The returned CharTrie may be read for as long as needed, even after the tenant is evicted,
+     * but it must only be updated through {@link #learn(String, String, int)}.
+     *
+     * @param tenant the tenant id: 1 to 64 letters, digits, '_' or '-'
+     * @return the dictionary of the tenant
+     * @throws IOException if the tenant cannot be loaded
+     */
+    public CharTrie get(String tenant) throws IOException {
+        return acquire(tenant).trie;
+    }
+
+    /**
+     * Increases the frequency of the specified word in the dictionary of the specified tenant.
+     * The change is persisted when the tenant is evicted, by {@link #flush()}, or by {@link #close()}.
+     *
+     * @param tenant the tenant id
+     * @param word   the learned word
+     * @param count  the number of occurrences to add
+     * @return the previous frequency of the word, as seen by the tenant
+     * @throws IOException if the tenant cannot be loaded
+     */
+    public int learn(String tenant, String word, int count) throws IOException {
+        while (true) {
+            Tenant t = acquire(tenant);
+            t.lock.readLock().lock();
+            try {
+                if (t.evicted) {
+                    // persisted and dropped since it was acquired, so it is loaded again
+                    continue;
+                }
+                int previous = t.trie.put(word, count);
+                t.dirty = true;
+                long bound = MemoryStats.newNodesBound(word.length());
+                t.bytes.addAndGet(bound);
+                residentBytes.addAndGet(bound);
+                enforceBudget(t);
+                return previous;
+            } finally {
+                t.lock.readLock().unlock();
+            }
+        }
+    }
+
+    private Tenant acquire(String tenant) throws IOException {
+        if (!TENANT_ID.matcher(tenant).matches()) {
+            throw new IllegalArgumentException("Invalid tenant id: " + tenant);
+        }
+        if (closed) {
+            throw new IllegalStateException("manager is closed.");
+        }
+        CompletableFuture<Tenant> future = tenants.get(tenant);
+        if (future == null) {
+            CompletableFuture<Tenant> loading = new CompletableFuture<>();
+            future = tenants.putIfAbsent(tenant, loading);
+            if (future == null) {
+                future = loading;
+                load(tenant, loading);
+            }
+        }
+        if (!future.isDone()) {
+            coalescedLoads.increment();
+        }
+        try {
+            Tenant t = future.get();
+            t.lastUse = clock.incrementAndGet();
+            return t;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void load(String tenant, CompletableFuture<Tenant> future) {
+        try {
+            CharTrie trie = base == null ? new CharTrie() : base.overlay();
+            Path file = file(tenant);
+            if (Files.exists(file)) {
+                trie.importBinary(file);
+            }
+            Tenant t = new Tenant(tenant, trie, trie.memoryStats().getRetainedBytes());
+            t.lastUse = clock.incrementAndGet();
+            loads.increment();
+            residentBytes.addAndGet(t.bytes.get());
+            future.complete(t);
+            enforceBudget(t);
+        } catch (IOException | RuntimeException e) {
+            // a failed load is not cached, so the next request tries again
+            tenants.remove(tenant, future);
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Evicts least recently used tenants, other than the specified one, while the budget is exceeded.
+     */
+    private void enforceBudget(Tenant current) {
+        if (residentBytes.get() <= budgetBytes) {
+            return;
+        }
+        if (tenants.size() == 1 && tenants.containsKey(current.id)) {
+            // nothing to evict, and measuring the current tenant would not change that
+            return;
+        }
+        synchronized (evictionLock) {
+            List<Tenant> resident = resident();
+            for (Tenant t : resident) {
+                long measuredBytes = t.measuredBytes;
+                if (residentBytes.get() > budgetBytes
+                        && (t.bytes.get() - measuredBytes) * REMEASURE_GROWTH > measuredBytes) {
+                    long measured = t.trie.memoryStats().getRetainedBytes();
+                    residentBytes.addAndGet(measured - t.bytes.getAndSet(measured));
+                    t.measuredBytes = measured;
+                }
+            }
+            resident.sort(Comparator.comparingLong(t -> t.lastUse));
+            for (Tenant t : resident) {
+                if (residentBytes.get() <= budgetBytes) {
+                    break;
+                }
+                if (t != current) {
+                    evict(t);
+                }
+            }
+        }
+    }
+
+    private List<Tenant> resident() {
+        List<Tenant> resident = new ArrayList<>();
+        for (CompletableFuture<Tenant> future : tenants.values()) {
+            if (future.isDone() && !future.isCompletedExceptionally()) {
+                resident.add(future.join());
+            }
+        }
+        return resident;
+    }
+
+    /**
+     * Persists the specified tenant and drops it. If it cannot be persisted, it stays resident.
+     * The caller must not hold the read lock of any tenant but the current one of {@link #enforceBudget(Tenant)}.
+     */
+    private void evict(Tenant t) {
+        if (!t.lock.writeLock().tryLock()) {
+            // being updated, which makes it recently used anyway
+            return;
+        }
+        try {
+            if (t.evicted) {
+                return;
+            }
+            persist(t);
+            t.evicted = true;
+            tenants.remove(t.id);
+            residentBytes.addAndGet(-t.bytes.get());
+            evictions.increment();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            t.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Persists the tenants that have learned words since they were last persisted.
+     *
+     * @throws IOException if a tenant cannot be persisted
+     */
+    public void flush() throws IOException {
+        for (Tenant t : resident()) {
+            t.lock.writeLock().lock();
+            try {
+                if (!t.evicted) {
+                    persist(t);
+                }
+            } finally {
+                t.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void persist(Tenant t) throws IOException {
+        if (!t.dirty) {
+            return;
+        }
+        Path dest = file(t.id);
+        Path tmp = dest.resolveSibling(dest.getFileName() + ".tmp");
+        t.trie.exportLayer(tmp);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, dest, StandardCopyOption.ATOMIC_MOVE);
+        t.dirty = false;
+    }
+
+    private Path file(String tenant) {
+        return directory.resolve(tenant + ".bin");
+    }
+
+    /**
+     * @return the number of resident tenants
+     */
+    public int getResidentTenants() {
+        return resident().size();
+    }
+
+    /**
+     * @return the estimated bytes retained by the resident tenants
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    /**
+     * @return the number of tenants loaded
+     */
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    /**
+     * @return the number of requests that waited for a load started by another request
+     */
+    public long getCoalescedLoads() {
+        return coalescedLoads.sum();
+    }
+
+    /**
+     * @return the number of tenants evicted
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Persists all tenants. The manager must not be used afterwards.
+     *
+     * @throws IOException if a tenant cannot be persisted
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        flush();
+    }
+
+    private static final class Tenant {
+
+        private final String id;
+        private final CharTrie trie;
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /**
+         * the estimated retained bytes: the last measurement, plus upper bounds of the words learned since
+         */
+        private final AtomicLong bytes;
+        /**
+         * the retained bytes measured on load, or by the last measurement of {@link #enforceBudget(Tenant)}
+         */
+        private volatile long measuredBytes;
+        private volatile boolean dirty;
+        private volatile boolean evicted;
+        private volatile long lastUse;
+
+        private Tenant(String id, CharTrie trie, long bytes) {
+            this.id = id;
+            this.trie = trie;
+            this.bytes = new AtomicLong(bytes);
+            measuredBytes = bytes;
+        }
+
+    }
+
+}
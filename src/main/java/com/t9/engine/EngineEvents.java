@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+/**
+ * Flight Recorder events of the engine, in the "T9" category.
+ * <p>
+ * Each operation calls a begin method, which returns an event that has begun, or null if the event is disabled,
+ * and passes it to the matching end method along with the values to record. A disabled event costs a check;
+ * nothing is allocated or recorded.
+ * <p>
+ * The events are defined by {@code JfrEvents}, in {@code src/main/jfr/java}, which is compiled against the
+ * jdk.jfr API of JDK 11 by the {@code jfr} profile, active on JDK 11 and later, so that the rest of the engine
+ * still builds for Java 8. It is loaded reflectively, and every begin method returns null when it or the
+ * jdk.jfr API is missing.
+ *
+ * @author ahmad
+ */
+final class EngineEvents {
+
+    private static final Sink SINK = loadSink();
+
+    private EngineEvents() {
+    }
+
+    private static Sink loadSink() {
+        ClassLoader loader = EngineEvents.class.getClassLoader();
+        try {
+            Class.forName("jdk.jfr.Event", false, loader);
+            return Class.forName("com.t9.engine.JfrEvents", true, loader)
+                    .asSubclass(Sink.class)
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    static Object beginSuggest() {
+        return SINK == null ? null : SINK.beginSuggest();
+    }
+
+    static void endSuggest(Object begun, int inputLength, int delta, int candidates) {
+        if (begun != null) {
+            SINK.endSuggest(begun, inputLength, delta, candidates);
+        }
+    }
+
+    static Object beginGeneration() {
+        return SINK == null ? null : SINK.beginGeneration();
+    }
+
+    static void endGeneration(Object begun, int inputLength, long visited, long produced, long spawned) {
+        if (begun != null) {
+            SINK.endGeneration(begun, inputLength, visited, produced, spawned);
+        }
+    }
+
+    static Object beginDictionaryIO() {
+        return SINK == null ? null : SINK.beginDictionaryIO();
+    }
+
+    /**
+     * @param operation the name of the CharTrie method
+     * @param path      the file that is imported or exported
+     * @param bytes     the size of the file
+     * @param words     the number of words imported or exported
+     */
+    static void endDictionaryIO(Object begun, String operation, String path, long bytes, long words) {
+        if (begun != null) {
+            SINK.endDictionaryIO(begun, operation, path, bytes, words);
+        }
+    }
+
+    static Object beginBlock() {
+        return SINK == null ? null : SINK.beginBlock();
+    }
+
+    /**
+     * @param operation "compress" or "decompress"; shards of lazily opened CharTries are loaded by decompressing
+     * @param bytes     the compressed size of the block
+     */
+    static void endBlock(Object begun, String operation, char key, long bytes, long words) {
+        if (begun != null) {
+            SINK.endBlock(begun, operation, key, bytes, words);
+        }
+    }
+
+    static Object beginJournal() {
+        return SINK == null ? null : SINK.beginJournal();
+    }
+
+    /**
+     * @param operation  "flush" or "compact"
+     * @param generation the generation of the journal flushed to, or of the snapshot written
+     * @param bytes      the bytes written
+     */
+    static void endJournal(Object begun, String operation, long generation, long bytes) {
+        if (begun != null) {
+            SINK.endJournal(begun, operation, generation, bytes);
+        }
+    }
+
+    /**
+     * The implementation of the events, with the same contract as the static methods.
+     */
+    interface Sink {
+
+        Object beginSuggest();
+
+        void endSuggest(Object begun, int inputLength, int delta, int candidates);
+
+        Object beginGeneration();
+
+        void endGeneration(Object begun, int inputLength, long visited, long produced, long spawned);
+
+        Object beginDictionaryIO();
+
+        void endDictionaryIO(Object begun, String operation, String path, long bytes, long words);
+
+        Object beginBlock();
+
+        void endBlock(Object begun, String operation, char key, long bytes, long words);
+
+        Object beginJournal();
+
+        void endJournal(Object begun, String operation, long generation, long bytes);
+
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on metrics of the engine, registered as a platform MBean when this class is initialized.
+ * <p>
+ * Counters are {@link LongAdder}s and latencies are recorded in {@link LatencyHistogram}s, so recording never
+ * blocks and costs a few nanoseconds. The word generator publishes its counts once per call, so its workers
+ * do not contend on the global counters.
+ *
+ * @author ahmad
+ */
+public final class EngineMetrics implements EngineMetricsMBean {
+
+    public static final String OBJECT_NAME = "com.t9:type=EngineMetrics";
+
+    /**
+     * input lengths of this many digits or more share the last histogram
+     */
+    private static final int MAX_INPUT_LENGTH = 32;
+
+    private static final EngineMetrics INSTANCE = new EngineMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException e) {
+            // already registered by another class loader, or not permitted; the metrics are still recorded
+        }
+    }
+
+    private final LatencyHistogram suggestLatency = new LatencyHistogram();
+    private final AtomicReferenceArray<LatencyHistogram> suggestLatencyByInputLength
+            = new AtomicReferenceArray<>(MAX_INPUT_LENGTH + 1);
+
+    private final LongAdder candidatesProduced = new LongAdder();
+    private final LongAdder candidatesReturned = new LongAdder();
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder tasksSpawned = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder coalescingComputations = new LongAdder();
+    private final LongAdder coalescedSuggests = new LongAdder();
+
+    /**
+     * the latest sample of the put count, taken by the first put rate query a second after the previous one
+     */
+    private final AtomicReference<PutSample> putSample = new AtomicReference<>(new PutSample(null));
+
+    private EngineMetrics() {
+    }
+
+    /**
+     * @return the metrics of the engine
+     */
+    public static EngineMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    void recordSuggest(int inputLength, long nanos) {
+        suggestLatency.record(nanos);
+        int i = Math.min(inputLength, MAX_INPUT_LENGTH);
+        LatencyHistogram histogram = suggestLatencyByInputLength.get(i);
+        if (histogram == null && !suggestLatencyByInputLength.compareAndSet(i, null, histogram = new LatencyHistogram())) {
+            histogram = suggestLatencyByInputLength.get(i);
+        }
+        histogram.record(nanos);
+    }
+
+    void recordGeneration(long produced, long visited, long tasks) {
+        candidatesProduced.add(produced);
+        nodesVisited.add(visited);
+        tasksSpawned.add(tasks);
+    }
+
+    void recordReturned() {
+        candidatesReturned.increment();
+    }
+
+    void recordPut() {
+        puts.increment();
+    }
+
+    void recordComputed() {
+        coalescingComputations.increment();
+    }
+
+    void recordCoalesced() {
+        coalescedSuggests.increment();
+    }
+
+    @Override
+    public long getSuggestCount() {
+        return suggestLatency.count();
+    }
+
+    @Override
+    public long getSuggestLatencyP50() {
+        return suggestLatency.percentile(50) / 1000;
+    }
+
+    @Override
+    public long getSuggestLatencyP99() {
+        return suggestLatency.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getSuggestLatencyP999() {
+        return suggestLatency.percentile(99.9) / 1000;
+    }
+
+    @Override
+    public String[] getSuggestLatencyByInputLength() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 1; i <= MAX_INPUT_LENGTH; i++) {
+            LatencyHistogram histogram = suggestLatencyByInputLength.get(i);
+            long count = histogram == null ? 0 : histogram.count();
+            if (count > 0) {
+                lines.add(String.format("length=%d%s count=%d p50=%dus p99=%dus p999=%dus",
+                        i, i == MAX_INPUT_LENGTH ? "+" : "", count, histogram.percentile(50) / 1000,
+                        histogram.percentile(99) / 1000, histogram.percentile(99.9) / 1000));
+            }
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public long getCandidatesProduced() {
+        return candidatesProduced.sum();
+    }
+
+    @Override
+    public long getCandidatesReturned() {
+        return candidatesReturned.sum();
+    }
+
+    @Override
+    public long getNodesVisited() {
+        return nodesVisited.sum();
+    }
+
+    @Override
+    public long getTasksSpawned() {
+        return tasksSpawned.sum();
+    }
+
+    @Override
+    public long getPutCount() {
+        return puts.sum();
+    }
+
+    @Override
+    public long getCoalescingComputations() {
+        return coalescingComputations.sum();
+    }
+
+    @Override
+    public long getCoalescedSuggestCount() {
+        return coalescedSuggests.sum();
+    }
+
+    @Override
+    public double getCoalescingRatio() {
+        long coalesced = coalescedSuggests.sum(), total = coalesced + coalescingComputations.sum();
+        return total == 0 ? 0 : (double) coalesced / total;
+    }
+
+    @Override
+    public double getPutRate() {
+        PutSample sample = putSample.get();
+        if (System.nanoTime() - sample.time >= PutSample.INTERVAL_NANOS) {
+            // another query may have sampled meanwhile, in which case its sample is as good
+            putSample.compareAndSet(sample, new PutSample(sample));
+            sample = putSample.get();
+        }
+        long time = System.nanoTime(), count = puts.sum();
+        return time == sample.previousTime ? 0 : (count - sample.previousPuts) * 1e9 / (time - sample.previousTime);
+    }
+
+    @Override
+    public synchronized void reset() {
+        suggestLatency.reset();
+        for (int i = 0; i < suggestLatencyByInputLength.length(); i++) {
+            suggestLatencyByInputLength.set(i, null);
+        }
+        candidatesProduced.reset();
+        candidatesReturned.reset();
+        nodesVisited.reset();
+        tasksSpawned.reset();
+        puts.reset();
+        coalescingComputations.reset();
+        coalescedSuggests.reset();
+        putSample.set(new PutSample(null));
+    }
+
+    /**
+     * A sample of the put count, and the one before it.
+     */
+    private final class PutSample {
+
+        private static final long INTERVAL_NANOS = 1_000_000_000L;
+
+        private final long time = System.nanoTime();
+        private final long puts = EngineMetrics.this.puts.sum();
+        private final long previousTime;
+        private final long previousPuts;
+
+        /**
+         * @param previous the previous sample, or null for the first one
+         */
+        private PutSample(PutSample previous) {
+            previousTime = previous == null ? time : previous.time;
+            previousPuts = previous == null ? puts : previous.puts;
+        }
+
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+/**
+ * Management interface of {@link EngineMetrics}, registered as {@value EngineMetrics#OBJECT_NAME}.
+ * Latencies are in microseconds. The latency of a suggest call is the time it takes to generate and rank the
+ * suggestions, up to the return of the stream; consuming the stream is not included.
+ *
+ * @author ahmad
+ */
+public interface EngineMetricsMBean {
+
+    /**
+     * @return the number of calls to {@link WordSuggester#suggest(CharTrie, String, int)}
+     */
+    long getSuggestCount();
+
+    long getSuggestLatencyP50();
+
+    long getSuggestLatencyP99();
+
+    long getSuggestLatencyP999();
+
+    /**
+     * @return a line per input length with the number of suggest calls and their p50, p99 and p999 latencies
+     */
+    String[] getSuggestLatencyByInputLength();
+
+    /**
+     * @return the number of words found by the word generator, including duplicates
+     */
+    long getCandidatesProduced();
+
+    /**
+     * @return the number of suggestions consumed from the streams returned by suggest
+     */
+    long getCandidatesReturned();
+
+    /**
+     * @return the number of trie Nodes the word generator has moved to
+     */
+    long getNodesVisited();
+
+    /**
+     * @return the number of fork/join tasks the word generator has created
+     */
+    long getTasksSpawned();
+
+    /**
+     * @return the number of words put into CharTries
+     */
+    long getPutCount();
+
+    /**
+     * @return the number of suggestions computed by {@link SuggestionCoalescer}s
+     */
+    long getCoalescingComputations();
+
+    /**
+     * @return the number of calls to {@link SuggestionCoalescer}s that shared a computation in flight
+     */
+    long getCoalescedSuggestCount();
+
+    /**
+     * @return the fraction of the calls to {@link SuggestionCoalescer}s that shared a computation in flight
+     */
+    double getCoalescingRatio();
+
+    /**
+     * @return the number of words put into CharTries per second, since a sample of the put count taken at least a
+     * second before; samples are taken by the queries, at most once a second, so that the rate queried every
+     * second covers the last one to two seconds, whoever queries it
+     */
+    double getPutRate();
+
+    /**
+     * Resets all the metrics.
+     */
+    void reset();
+
+}
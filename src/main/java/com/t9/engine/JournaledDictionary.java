@@ -0,0 +1,542 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * A CharTrie persisted as a snapshot plus an append-only journal of learned words.
+ * <p>
+ * The directory holds generations of files: {@code snapshot-N.bin} is a binary dictionary, and {@code journal-N.log}
+ * holds the (word, delta) updates made after snapshot N was taken. At startup, the latest snapshot is loaded and
+ * every journal of the same or a later generation is replayed on top of it.
+ * <p>
+ * Updates are buffered and written to the journal by a background thread, which forces them to disk in batches,
+ * every sync interval. Once the journal grows past the compaction threshold it is closed, a new generation
+ * is started, and another background thread folds the closed journals into the next snapshot, streaming the
+ * previous snapshot through without loading it. A crash at any point leaves a consistent set of files behind;
+ * at most the updates of the last sync interval are lost.
+ *
+ * @author ahmad
+ */
+public final class JournaledDictionary implements Closeable {
+
+    private static final Pattern FILE_PATTERN = Pattern.compile("(snapshot|journal)-(\\d+)\\.(bin|log)");
+
+    private static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+    private static final long DEFAULT_COMPACTION_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * upper bound for the length of a journal record being read, anything larger is treated as a torn write
+     */
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final CharTrie trie;
+    private final long compactionThreshold;
+
+    private final ScheduledExecutorService flusher;
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /**
+     * records not written to the journal yet, guarded by this
+     */
+    private Output pending = new Output(4096, -1);
+    private final CRC32 crc = new CRC32();
+    private boolean closed;
+
+    /**
+     * confined to the flusher thread
+     */
+    private Output spare = new Output(4096, -1);
+    private FileChannel journal;
+    private long generation;
+
+    /**
+     * the failure of the latest background flush, cleared by the next successful one
+     */
+    private volatile IOException failure;
+
+    /**
+     * the latest compaction, written by the flusher thread only
+     */
+    private volatile Future<?> compaction;
+
+    /**
+     * the generation of the latest snapshot, written by the compactor thread only
+     */
+    private volatile long snapshotGeneration;
+
+    private JournaledDictionary(Path directory, CharTrie trie, long snapshotGeneration, long generation,
+                                FileChannel journal, long syncIntervalMillis, long compactionThreshold) {
+        this.directory = directory;
+        this.trie = trie;
+        this.snapshotGeneration = snapshotGeneration;
+        this.generation = generation;
+        this.journal = journal;
+        this.compactionThreshold = compactionThreshold;
+        flusher = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("t9-journal-flusher"));
+        compactor = Executors.newSingleThreadExecutor(daemonThreadFactory("t9-journal-compactor"));
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (IOException e) {
+                // retried on the next sync interval; learn fails until then
+                failure = e;
+            }
+        }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the dictionary persisted in the specified directory, or creates an empty one.
+     *
+     * @param directory the directory of the snapshots and journals
+     * @return the opened dictionary
+     * @throws IOException
+     */
+    public static JournaledDictionary open(Path directory) throws IOException {
+        return open(directory, null, DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the dictionary persisted in the specified directory.
+     * If the directory has no snapshot yet, the first one is created from the specified binary dictionary.
+     *
+     * @param directory the directory of the snapshots and journals
+     * @param seed      the binary dictionary to start from, or null to start empty
+     * @return the opened dictionary
+     * @throws IOException
+     */
+    public static JournaledDictionary open(Path directory, Path seed) throws IOException {
+        return open(directory, seed, DEFAULT_SYNC_INTERVAL_MILLIS, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the dictionary persisted in the specified directory.
+     * If the directory has no snapshot yet, the first one is created from the specified binary dictionary.
+     *
+     * @param directory           the directory of the snapshots and journals
+     * @param seed                the binary dictionary to start from, or null to start empty
+     * @param syncIntervalMillis  how often buffered updates are written and forced to disk
+     * @param compactionThreshold the journal size, in bytes, past which it is folded into a new snapshot
+     * @return the opened dictionary
+     * @throws IOException
+     */
+    public static JournaledDictionary open(Path directory, Path seed, long syncIntervalMillis,
+                                           long compactionThreshold) throws IOException {
+        Files.createDirectories(directory);
+        SortedMap<Long, Path> snapshots = new TreeMap<>(), journals = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher m = FILE_PATTERN.matcher(name);
+                if (m.matches()) {
+                    (m.group(1).equals("snapshot") ? snapshots : journals).put(Long.parseLong(m.group(2)), file);
+                } else if (name.endsWith(".tmp")) {
+                    // an interrupted compaction
+                    Files.delete(file);
+                }
+            }
+        }
+
+        CharTrie trie = new CharTrie();
+        long snapshotGeneration;
+        if (snapshots.isEmpty()) {
+            snapshotGeneration = journals.isEmpty() ? 0 : journals.firstKey();
+            if (seed != null) {
+                trie.importBinary(seed);
+            }
+            writeAtomically(trie::exportBinary, snapshot(directory, snapshotGeneration));
+        } else {
+            snapshotGeneration = snapshots.lastKey();
+            trie.importBinary(snapshots.get(snapshotGeneration));
+        }
+        for (Path stale : snapshots.headMap(snapshotGeneration).values()) {
+            Files.delete(stale);
+        }
+        for (Path stale : journals.headMap(snapshotGeneration).values()) {
+            Files.delete(stale);
+        }
+
+        long generation = snapshotGeneration;
+        long validLength = 0;
+        for (Map.Entry<Long, Path> e : journals.tailMap(snapshotGeneration).entrySet()) {
+            generation = e.getKey();
+            validLength = replay(e.getValue(), trie::put);
+        }
+        FileChannel journal = FileChannel.open(journal(directory, generation),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // drop a torn record at the end of the journal
+        journal.truncate(validLength);
+        journal.position(validLength);
+
+        return new JournaledDictionary(directory, trie, snapshotGeneration, generation, journal,
+                syncIntervalMillis, compactionThreshold);
+    }
+
+    /**
+     * @return the CharTrie of this dictionary, which must only be updated by {@link #learn(String)}
+     */
+    public CharTrie getTrie() {
+        return trie;
+    }
+
+    /**
+     * Increases the frequency of the specified word and journals the update.
+     *
+     * @param word the learned word
+     * @return the previous frequency of the specified word
+     */
+    public int learn(String word) {
+        return learn(word, 1);
+    }
+
+    /**
+     * Increases the frequency of the specified word by the specified amount and journals the update.
+     *
+     * @param word  the learned word
+     * @param delta the number of occurrences to add
+     * @return the previous frequency of the specified word
+     * @throws UncheckedIOException if the journal could not be written on the latest sync interval, in which case
+     *                              the word is not learned; the buffered updates are kept and written once it can
+     */
+    public int learn(String word, int delta) {
+        if (delta < 1) {
+            throw new IllegalArgumentException("delta must be greater than zero.");
+        }
+        IOException failure = this.failure;
+        if (failure != null) {
+            throw new UncheckedIOException("journal cannot be written", failure);
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("dictionary is closed.");
+            }
+            if (!word.isEmpty()) {
+                append(word, delta);
+            }
+        }
+        return trie.put(word, delta);
+    }
+
+    /**
+     * record = length of payload, CRC32 of payload, payload = word, zig-zag varint delta
+     */
+    private void append(String word, int delta) {
+        int start = pending.position();
+        // placeholder for the header, written once the payload is known
+        pending.writeLong(0);
+        pending.writeString(word);
+        pending.writeVarInt(delta, false);
+        int end = pending.position();
+        crc.reset();
+        crc.update(pending.getBuffer(), start + 8, end - start - 8);
+        pending.setPosition(start);
+        pending.writeInt(end - start - 8);
+        pending.writeInt((int) crc.getValue());
+        pending.setPosition(end);
+    }
+
+    /**
+     * Writes all buffered updates to the journal and forces them to disk.
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        runOnFlusher(this::flush);
+    }
+
+    /**
+     * Folds the journal into a new snapshot now, and waits for it to complete.
+     *
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        while (true) {
+            Future<?> started = runOnFlusher(() -> {
+                flush();
+                return compacting.compareAndSet(false, true) ? rotate() : null;
+            });
+            try {
+                if (started != null) {
+                    started.get();
+                    return;
+                }
+                // a background compaction is still running; it is waited for here, not on the flusher thread
+                Future<?> running = compaction;
+                if (running != null) {
+                    try {
+                        running.get();
+                    } catch (ExecutionException ignored) {
+                        // the journals it failed to fold are folded by the next one
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Writes all buffered updates and closes the journal. A running compaction is allowed to complete.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            sync();
+        } finally {
+            flusher.shutdown();
+            compactor.shutdown();
+            try {
+                flusher.awaitTermination(1, TimeUnit.MINUTES);
+                compactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            journal.close();
+        }
+    }
+
+    private <T> T runOnFlusher(Callable<T> task) throws IOException {
+        try {
+            return flusher.submit(task).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (RejectedExecutionException e) {
+            throw new IllegalStateException("dictionary is closed.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Runs on the flusher thread. If the batch cannot be written, the journal is truncated back to where it was,
+     * and the batch is put back in front of the updates made since, to be written by the next flush.
+     */
+    private Void flush() throws IOException {
+        long start = journal.position();
+        Output batch;
+        synchronized (this) {
+            batch = pending;
+            if (batch.position() == 0) {
+                failure = null;
+                return null;
+            }
+            pending = spare;
+        }
+        Object event = EngineEvents.beginJournal();
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch.getBuffer(), 0, batch.position());
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            journal.force(false);
+        } catch (IOException | RuntimeException e) {
+            try {
+                // drops a partly written batch, which would hide the records after it from replay
+                journal.truncate(start);
+                journal.position(start);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            synchronized (this) {
+                batch.writeBytes(pending.getBuffer(), 0, pending.position());
+                pending.clear();
+                spare = pending;
+                pending = batch;
+            }
+            throw e;
+        }
+        failure = null;
+        EngineEvents.endJournal(event, "flush", generation, batch.position());
+        batch.clear();
+        spare = batch;
+        if (journal.size() >= compactionThreshold && compacting.compareAndSet(false, true)) {
+            rotate();
+        }
+        return null;
+    }
+
+    /**
+     * Runs on the flusher thread, once the caller has set the compacting flag.
+     * Starts a new journal generation, and submits the compaction of the closed ones.
+     */
+    private Future<?> rotate() throws IOException {
+        try {
+            FileChannel next = FileChannel.open(journal(directory, generation + 1),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            journal.close();
+            journal = next;
+            long last = generation++;
+            return compaction = compactor.submit(() -> {
+                try {
+                    fold(last);
+                } finally {
+                    compacting.set(false);
+                }
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            compacting.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs on the compactor thread.
+     * Writes snapshot (last + 1) as the latest snapshot plus the journals up to the specified generation.
+     */
+    private void fold(long last) throws IOException {
+        Object event = EngineEvents.beginJournal();
+        long first = snapshotGeneration;
+        Map<String, Integer> deltas = new HashMap<>();
+        for (long g = first; g <= last; g++) {
+            Path file = journal(directory, g);
+            if (Files.exists(file)) {
+                replay(file, (v, d) -> deltas.merge(v, d, Integer::sum));
+            }
+        }
+        writeAtomically(dest -> {
+            try (WordBatches.Writer writer = CharTrie.binaryWriter(dest)) {
+                CharTrie.readBinary(snapshot(directory, first), (v, f) -> {
+                    Integer delta = deltas.remove(v);
+                    try {
+                        writer.write(v, delta == null ? f : f + delta);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                for (Map.Entry<String, Integer> e : deltas.entrySet()) {
+                    writer.write(e.getKey(), e.getValue());
+                }
+                writer.finish();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }, snapshot(directory, last + 1));
+        snapshotGeneration = last + 1;
+        Files.deleteIfExists(snapshot(directory, first));
+        for (long g = first; g <= last; g++) {
+            Files.deleteIfExists(journal(directory, g));
+        }
+        if (event != null) {
+            EngineEvents.endJournal(event, "compact", last + 1, Files.size(snapshot(directory, last + 1)));
+        }
+    }
+
+    /**
+     * Replays the records of the specified journal, up to the first torn or corrupted one.
+     *
+     * @return the length of the valid part of the journal
+     */
+    private static long replay(Path file, BiConsumer<String, Integer> action) throws IOException {
+        long position = 0;
+        byte[] payload = new byte[256];
+        Input input = new Input();
+        CRC32 crc = new CRC32();
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int length = inputStream.readInt();
+                int checksum = inputStream.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+                if (length > payload.length) {
+                    payload = new byte[length];
+                }
+                inputStream.readFully(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                input.setBuffer(payload, 0, length);
+                String word = input.readString();
+                int delta = input.readVarInt(false);
+                if (input.position() != length || delta < 1) {
+                    break;
+                }
+                action.accept(word, delta);
+                position += 8 + length;
+            }
+        } catch (EOFException | KryoException e) {
+            // torn write at the end of the journal
+        }
+        return position;
+    }
+
+    private static void writeAtomically(SnapshotWriter writer, Path dest) throws IOException {
+        Path tmp = dest.resolveSibling(dest.getFileName() + ".tmp");
+        writer.write(tmp);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, dest, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path snapshot(Path directory, long generation) {
+        return directory.resolve("snapshot-" + generation + ".bin");
+    }
+
+    private static Path journal(Path directory, long generation) {
+        return directory.resolve("journal-" + generation + ".log");
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private interface SnapshotWriter {
+
+        void write(Path dest) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+/**
+ * Memory footprint of a CharTrie, as returned by {@link CharTrie#memoryStats()}.
+ * <p>
+ * Retained bytes are estimated from the layout of the objects on a 64-bit JVM with compressed references
+ * (the default for heaps under 32 GB): 12 byte object headers, 4 byte references and 8 byte alignment.
+ * Each Node is split into the Node object itself, its counters (frequency and max frequency),
+ * and its child map: a ConcurrentHashMap, its table, its entries, and the boxed keys
+ * that are not cached by {@link Character#valueOf(char)}.
+ *
+ * @author ahmad
+ */
+public final class MemoryStats {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    /**
+     * a Node without its counters: header and children reference
+     */
+    private static final int NODE = align(OBJECT_HEADER + REFERENCE);
+
+    /**
+     * frequency and maxFrequency
+     */
+    private static final int COUNTERS = align(OBJECT_HEADER + REFERENCE + 2 * 4) - NODE;
+
+    /**
+     * an empty ConcurrentHashMap: 9 references (including those of AbstractMap), a long and 3 ints
+     */
+    private static final int MAP = align(OBJECT_HEADER + 9 * REFERENCE + 8 + 3 * 4);
+
+    /**
+     * a ConcurrentHashMap.Node: hash, key, value and next
+     */
+    private static final int MAP_ENTRY = align(OBJECT_HEADER + 4 + 3 * REFERENCE);
+
+    private static final int BOXED_CHARACTER = align(OBJECT_HEADER + 2);
+
+    private long nodes;
+    private long edges;
+    private long terminals;
+    private long nodeBytes;
+    private long childMapBytes;
+    private long counterBytes;
+
+    MemoryStats() {
+    }
+
+    /**
+     * Accounts for a Node.
+     *
+     * @param children     the number of children of the Node
+     * @param uncachedKeys the number of children whose keys are not cached boxes
+     * @param terminal     whether the Node terminates a word
+     */
+    void addNode(int children, int uncachedKeys, boolean terminal) {
+        nodes++;
+        edges += children;
+        if (terminal) {
+            terminals++;
+        }
+        nodeBytes += NODE;
+        counterBytes += COUNTERS;
+        childMapBytes += MAP + (long) children * MAP_ENTRY + (long) uncachedKeys * BOXED_CHARACTER;
+        if (children > 0) {
+            childMapBytes += align(ARRAY_HEADER + (long) tableCapacity(children) * REFERENCE);
+        }
+    }
+
+    /**
+     * @return the table capacity of a ConcurrentHashMap, created with the default capacity,
+     * after the specified number of insertions
+     */
+    private static int tableCapacity(int size) {
+        int capacity = 16;
+        while (size >= capacity - (capacity >>> 2)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * @return an upper bound of the bytes retained by the specified number of new Nodes, each of which is
+     * the first child of its parent, i.e. the growth of a CharTrie when a word of that many new characters is put
+     */
+    static long newNodesBound(int nodes) {
+        long perNode = NODE + COUNTERS + MAP + MAP_ENTRY + BOXED_CHARACTER
+                + align(ARRAY_HEADER + (long) tableCapacity(1) * REFERENCE);
+        return nodes * perNode;
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * @return the number of Nodes, including the root
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the number of parent-child links
+     */
+    public long getEdges() {
+        return edges;
+    }
+
+    /**
+     * @return the number of Nodes that terminate a word, i.e. the number of words
+     */
+    public long getTerminals() {
+        return terminals;
+    }
+
+    /**
+     * @return the estimated bytes of the Node objects, excluding their counters
+     */
+    public long getNodeBytes() {
+        return nodeBytes;
+    }
+
+    /**
+     * @return the estimated bytes of the child maps, including their tables, entries and boxed keys
+     */
+    public long getChildMapBytes() {
+        return childMapBytes;
+    }
+
+    /**
+     * @return the estimated bytes of the frequency counters
+     */
+    public long getCounterBytes() {
+        return counterBytes;
+    }
+
+    /**
+     * @return the estimated retained bytes
+     */
+    public long getRetainedBytes() {
+        return nodeBytes + childMapBytes + counterBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "{" +
+                "nodes=" + nodes +
+                ", edges=" + edges +
+                ", terminals=" + terminals +
+                ", nodeBytes=" + nodeBytes +
+                ", childMapBytes=" + childMapBytes +
+                ", counterBytes=" + counterBytes +
+                ", retainedBytes=" + getRetainedBytes() +
+                '}';
+    }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * A dictionary partitioned into independent CharTries by the first character of its words, or by the digit that
+ * types it, so that concurrent puts and suggestions of words in different shards do not contend for the same root.
+ * <p>
+ * Each shard has a pool of workers of its own, which generate the suggestions from the shard. A suggestion is
+ * scattered to the shards the first digit of its input selects: three or four shards when partitioned by character,
+ * one when partitioned by digit; and their words are gathered and ranked as by {@link WordSuggester}.
+ * Puts run on the calling thread. Words that do not start with a..z are kept in a shard of their own, which
+ * is never asked for suggestions.
+ *
+ * @author ahmad
+ */
+public final class ShardedDictionary implements Closeable {
+
+    /**
+     * How the words are partitioned into shards.
+     */
+    public enum Partitioning {
+
+        /**
+         * a shard per character a..z
+         */
+        CHARACTER {
+            @Override
+            char keyOf(char first) {
+                return first >= 'a' && first <= 'z' ? first : 0;
+            }
+
+            @Override
+            char[] keysOf(char[] firstDigit) {
+                return firstDigit;
+            }
+        },
+
+        /**
+         * a shard per digit 2..9
+         */
+        DIGIT {
+            @Override
+            char keyOf(char first) {
+                return WordSuggester.toDigit(first);
+            }
+
+            @Override
+            char[] keysOf(char[] firstDigit) {
+                return new char[]{keyOf(firstDigit[0])};
+            }
+        };
+
+        /**
+         * @return the key of the shard of words starting with the specified character, or 0 for the other shard
+         */
+        abstract char keyOf(char first);
+
+        /**
+         * @param firstDigit the characters the first digit of an input types
+         * @return the keys of the shards that have the suggestions for the input
+         */
+        abstract char[] keysOf(char[] firstDigit);
+
+    }
+
+    private final Partitioning partitioning;
+
+    /**
+     * the shards indexed by key, and the other shard at 0
+     */
+    private final Shard[] shards = new Shard['z' + 1];
+    private final List<Shard> all = new ArrayList<>();
+
+    /**
+     * @param partitioning   how the words are partitioned
+     * @param threadsPerShard the number of workers of each shard
+     */
+    public ShardedDictionary(Partitioning partitioning, int threadsPerShard) {
+        if (threadsPerShard < 1) {
+            throw new IllegalArgumentException("threadsPerShard must be greater than zero.");
+        }
+        this.partitioning = partitioning;
+        addShard((char) 0, "other", threadsPerShard);
+        for (char ch = 'a'; ch <= 'z'; ch++) {
+            char key = partitioning.keyOf(ch);
+            if (shards[key] == null) {
+                addShard(key, String.valueOf(key), threadsPerShard);
+            }
+        }
+    }
+
+    private void addShard(char key, String name, int threads) {
+        Shard shard = new Shard(name, threads);
+        shards[key] = shard;
+        all.add(shard);
+    }
+
+    /**
+     * Creates a ShardedDictionary of the words of the specified CharTrie.
+     *
+     * @param source          the words to partition
+     * @param partitioning    how the words are partitioned
+     * @param threadsPerShard the number of workers of each shard
+     * @return the ShardedDictionary
+     */
+    public static ShardedDictionary of(CharTrie source, Partitioning partitioning, int threadsPerShard) {
+        ShardedDictionary dictionary = new ShardedDictionary(partitioning, threadsPerShard);
+        source.entries().parallel().forEach(word -> dictionary.put(word.getValue(), word.getFrequency()));
+        return dictionary;
+    }
+
+    private Shard shardOf(String word) {
+        return shards[partitioning.keyOf(word.charAt(0))];
+    }
+
+    /**
+     * @see CharTrie#put(String, int)
+     */
+    public int put(String word, int count) {
+        if (word.isEmpty()) {
+            return 0;
+        }
+        Shard shard = shardOf(word);
+        int previous = shard.trie.put(word, count);
+        shard.puts.increment();
+        if (previous == 0) {
+            shard.words.increment();
+        }
+        return previous;
+    }
+
+    /**
+     * @see CharTrie#frequency(String)
+     */
+    public int frequency(String word) {
+        return word.isEmpty() ? 0 : shardOf(word).trie.frequency(word);
+    }
+
+    /**
+     * @see CharTrie#contains(String)
+     */
+    public boolean contains(String word) {
+        return frequency(word) > 0;
+    }
+
+    /**
+     * @return a Stream over the words of all shards and their frequencies
+     */
+    public Stream<Word> entries() {
+        return all.stream().flatMap(shard -> shard.trie.entries());
+    }
+
+    /**
+     * Returns the suggestions for the specified input, as {@link WordSuggester#suggest(CharTrie, String, int)}
+     * would for a CharTrie of all the words.
+     *
+     * @param input digits 2..9
+     * @param delta the number of extra characters a suggested word may have
+     * @return the suggestions, in descending order of frequency
+     */
+    public Stream<Word> suggest(String input, int delta) {
+        if (delta < 0) {
+            throw new IllegalArgumentException("delta must be greater than or equal to zero.");
+        }
+        char[] keys = partitioning.keysOf(WordSuggester.mapTable(input)[0]);
+        Object event = EngineEvents.beginSuggest();
+        long start = System.nanoTime();
+        List<ForkJoinTask<List<Map<String, Integer>>>> tasks = new ArrayList<>(keys.length);
+        for (char key : keys) {
+            Shard shard = shards[key];
+            tasks.add(shard.pool.submit(() -> shard.suggest(input, delta)));
+        }
+        List<Map<String, Integer>> words = new ArrayList<>();
+        try {
+            for (ForkJoinTask<List<Map<String, Integer>>> task : tasks) {
+                words.addAll(task.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while gathering suggestions.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+        return WordSuggester.rank(words, input, delta, start, event);
+    }
+
+    /**
+     * @return a snapshot of the statistics of each shard, the other shard first
+     */
+    public List<ShardStatistics> getShardStatistics() {
+        List<ShardStatistics> statistics = new ArrayList<>(all.size());
+        for (Shard shard : all) {
+            statistics.add(new ShardStatistics(shard));
+        }
+        return Collections.unmodifiableList(statistics);
+    }
+
+    /**
+     * Shuts the workers of all shards down, waiting for the suggestions in progress.
+     */
+    @Override
+    public void close() {
+        for (Shard shard : all) {
+            shard.pool.shutdown();
+        }
+        try {
+            for (Shard shard : all) {
+                shard.pool.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Shard {
+
+        private final String name;
+        private final CharTrie trie = new CharTrie();
+        private final ForkJoinPool pool;
+
+        private final LongAdder words = new LongAdder();
+        private final LongAdder puts = new LongAdder();
+        private final LongAdder suggests = new LongAdder();
+        private final LongAdder suggestNanos = new LongAdder();
+        private final LongAdder candidates = new LongAdder();
+
+        private Shard(String name, int threads) {
+            this.name = name;
+            pool = new ForkJoinPool(threads, p -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+                thread.setName("t9-shard-" + name + "-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }, null, false);
+        }
+
+        /**
+         * Runs on a worker of this shard.
+         */
+        private List<Map<String, Integer>> suggest(String input, int delta) {
+            long start = System.nanoTime();
+            List<Map<String, Integer>> words = new ArrayList<>();
+            WordSuggester.suggest(trie, input, delta, words, pool);
+            suggestNanos.add(System.nanoTime() - start);
+            suggests.increment();
+            for (Map<String, Integer> map : words) {
+                candidates.add(map.size());
+            }
+            return words;
+        }
+
+    }
+
+    /**
+     * The statistics of a shard, since the ShardedDictionary was created.
+     */
+    public static final class ShardStatistics {
+
+        private final String name;
+        private final long words, puts, suggests, suggestNanos, candidates;
+        private final int threads, activeThreads;
+
+        private ShardStatistics(Shard shard) {
+            name = shard.name;
+            words = shard.words.sum();
+            puts = shard.puts.sum();
+            suggests = shard.suggests.sum();
+            suggestNanos = shard.suggestNanos.sum();
+            candidates = shard.candidates.sum();
+            threads = shard.pool.getParallelism();
+            activeThreads = shard.pool.getActiveThreadCount();
+        }
+
+        /**
+         * @return the key of the shard: a character, a digit, or "other"
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the number of distinct words put in the shard
+         */
+        public long getWords() {
+            return words;
+        }
+
+        public long getPuts() {
+            return puts;
+        }
+
+        /**
+         * @return the number of suggestions the shard was asked for
+         */
+        public long getSuggests() {
+            return suggests;
+        }
+
+        /**
+         * @return the total time the shard spent generating suggestions
+         */
+        public long getSuggestNanos() {
+            return suggestNanos;
+        }
+
+        /**
+         * @return the number of words the shard generated for suggestions
+         */
+        public long getCandidates() {
+            return candidates;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public int getActiveThreads() {
+            return activeThreads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-5s words = %,d, puts = %,d, suggests = %,d (%,d us avg), candidates = %,d, " +
+                            "threads = %d/%d", name, words, puts, suggests,
+                    suggests == 0 ? 0 : suggestNanos / suggests / 1000, candidates, activeThreads, threads);
+        }
+
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Single-flight suggestions of a CharTrie: concurrent calls with the same input, delta and k share a single
+ * computation of {@link WordSuggester#suggest(CharTrie, String, int)}, and all return its result.
+ * <p>
+ * A computation is shared only while it is in flight, and only by the calls made before any put into the CharTrie
+ * completes after it has started: a call made after it completes, or after such a put, starts a new one. So the
+ * result reflects the puts completed before the call, as without coalescing. If a computation fails, all the calls
+ * sharing it fail with its exception, and the next call computes again. A waiting call that is interrupted, or
+ * whose future is cancelled, stops waiting alone: the computation goes on for the others.
+ * <p>
+ * The number of computations and of calls that shared one are recorded in {@link EngineMetrics}.
+ *
+ * @author ahmad
+ */
+public final class SuggestionCoalescer {
+
+    private final CharTrie trie;
+    private final BiFunction<String, Integer, Stream<Word>> suggester;
+    private final Map<Key, CompletableFuture<List<Word>>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param trie the dictionary
+     */
+    public SuggestionCoalescer(CharTrie trie) {
+        this(trie, (input, delta) -> WordSuggester.suggest(trie, input, delta));
+    }
+
+    /**
+     * @param trie      the dictionary, whose puts tell the computations apart
+     * @param suggester the computation of the suggestions of an input and delta
+     */
+    SuggestionCoalescer(CharTrie trie, BiFunction<String, Integer, Stream<Word>> suggester) {
+        this.trie = trie;
+        this.suggester = suggester;
+    }
+
+    /**
+     * Returns the first k suggestions for the specified input, computing them on the calling thread unless
+     * an identical call is in flight.
+     *
+     * @param input digits 2..9
+     * @param delta the number of extra characters a suggested word may have
+     * @param k     the maximum number of suggestions
+     * @return the suggestions, in descending order of frequency, as an unmodifiable list
+     * @throws CancellationException if the thread is interrupted while waiting for a computation in flight,
+     *                               in which case its interrupt status is set
+     */
+    public List<Word> suggest(String input, int delta, int k) {
+        Key key = new Key(input, delta, k, trie.putCount());
+        CompletableFuture<List<Word>> future = new CompletableFuture<>();
+        CompletableFuture<List<Word>> shared = inFlight.putIfAbsent(key, future);
+        if (shared == null) {
+            return compute(key, future);
+        }
+        EngineMetrics.getInstance().recordCoalesced();
+        try {
+            return shared.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("interrupted while waiting for suggestions.");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the first k suggestions for the specified input, computing them on the specified executor unless
+     * an identical call is in flight. Cancelling the returned future does not cancel the computation.
+     *
+     * @param input    digits 2..9
+     * @param delta    the number of extra characters a suggested word may have
+     * @param k        the maximum number of suggestions
+     * @param executor the executor of the computation
+     * @return a future of the suggestions, in descending order of frequency, as an unmodifiable list
+     */
+    public CompletableFuture<List<Word>> suggestAsync(String input, int delta, int k, Executor executor) {
+        Key key = new Key(input, delta, k, trie.putCount());
+        CompletableFuture<List<Word>> future = new CompletableFuture<>();
+        CompletableFuture<List<Word>> shared = inFlight.putIfAbsent(key, future);
+        if (shared == null) {
+            shared = future;
+            try {
+                executor.execute(() -> {
+                    try {
+                        compute(key, future);
+                    } catch (RuntimeException | Error e) {
+                        // delivered through the future
+                    }
+                });
+            } catch (RuntimeException e) {
+                // e.g. rejected; fails the calls that have joined it so far
+                inFlight.remove(key, future);
+                future.completeExceptionally(e);
+            }
+        } else {
+            EngineMetrics.getInstance().recordCoalesced();
+        }
+        // a dependent future, so that cancelling it leaves the shared one alone
+        return shared.thenApply(words -> words);
+    }
+
+    /**
+     * Computes the suggestions of the specified key, and completes the specified future with them.
+     *
+     * @return the suggestions
+     */
+    private List<Word> compute(Key key, CompletableFuture<List<Word>> future) {
+        EngineMetrics.getInstance().recordComputed();
+        try {
+            List<Word> words = Collections.unmodifiableList(suggester.apply(key.input, key.delta)
+                    .limit(key.k)
+                    .collect(Collectors.toList()));
+            // removed before it completes, so that no call joins it once it is done
+            inFlight.remove(key, future);
+            future.complete(words);
+            return words;
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    /**
+     * @return the number of computations in flight
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    private static final class Key {
+
+        private final String input;
+        private final int delta;
+        private final int k;
+        /**
+         * the put count of the CharTrie when the call was made, so that a call joins only the computations
+         * started after the puts it follows
+         */
+        private final long puts;
+
+        private Key(String input, int delta, int k, long puts) {
+            this.input = input;
+            this.delta = delta;
+            this.k = k;
+            this.puts = puts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key that = (Key) o;
+            return delta == that.delta && k == that.k && puts == that.puts && input.equals(that.input);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((input.hashCode() * 31 + delta) * 31 + k) * 31 + Long.hashCode(puts);
+        }
+
+    }
+
+}
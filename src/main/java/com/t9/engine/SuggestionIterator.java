@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A lazy, best-first iterator over the suggestions for a T9 input.
+ * <p>
+ * Words are produced in descending order of frequency (ties in alphabetical order),
+ * by expanding the trie frontier with the highest max frequency first.
+ * Nothing is generated or sorted beyond what has been consumed.
+ *
+ * @author ahmad
+ */
+public final class SuggestionIterator implements java.util.Iterator<Word> {
+
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    private static final Base64.Encoder CURSOR_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder CURSOR_DECODER = Base64.getUrlDecoder();
+
+    private final String input;
+    private final int delta;
+    private final char[][] table;
+    private final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+
+    /**
+     * frequency and value of the last returned word, every word yielded afterwards is ordered after it
+     */
+    private int lastFrequency;
+    private String lastWord;
+
+    private Word next;
+
+    SuggestionIterator(CharTrie trie, String input, int delta) {
+        this(trie, input, delta, Integer.MAX_VALUE, "");
+    }
+
+    private SuggestionIterator(CharTrie trie, String input, int delta, int lastFrequency, String lastWord) {
+        this.input = input;
+        this.delta = delta;
+        this.table = WordSuggester.mapTable(input);
+        this.lastFrequency = lastFrequency;
+        this.lastWord = lastWord;
+        CharTrie.Iterator root = trie.iterator();
+        if (root.maxFrequency() > 0) {
+            queue.add(new Candidate(root, "", root.maxFrequency(), false));
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public Word next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Word word = next;
+        next = null;
+        lastFrequency = word.getFrequency();
+        lastWord = word.getValue();
+        return word;
+    }
+
+    /**
+     * @param n the maximum number of words to return
+     * @return the next page of at most n suggestions
+     */
+    public List<Word> next(int n) {
+        List<Word> words = new ArrayList<>(Math.min(n, 64));
+        while (words.size() < n && hasNext()) {
+            words.add(next());
+        }
+        return words;
+    }
+
+    /**
+     * @return a sequential ordered Stream over the remaining suggestions of this iterator
+     */
+    public Stream<Word> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Returns an opaque token from which {@link WordSuggester#resume(CharTrie, String)} continues
+     * right after the last word returned by this iterator.
+     *
+     * @return the cursor token
+     */
+    public String cursor() {
+        String state = input + '\n' + delta + '\n' + lastFrequency + '\n' + lastWord;
+        return CURSOR_ENCODER.encodeToString(state.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static SuggestionIterator resume(CharTrie trie, String cursor) {
+        String[] state;
+        try {
+            state = new String(CURSOR_DECODER.decode(cursor), StandardCharsets.UTF_8).split("\n", 4);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+        }
+        if (state.length != 4) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor);
+        }
+        try {
+            return new SuggestionIterator(trie, state[0], Integer.parseInt(state[1]), Integer.parseInt(state[2]), state[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+        }
+    }
+
+    private Word advance() {
+        Candidate candidate;
+        while ((candidate = queue.poll()) != null) {
+            if (candidate.terminal) {
+                return new Word(candidate.word, candidate.frequency);
+            }
+            int depth = candidate.word.length();
+            if (depth >= table.length) {
+                int frequency = candidate.iterator.frequency();
+                if (frequency > 0 && isAfterLast(frequency, candidate.word)) {
+                    queue.add(new Candidate(candidate.iterator, candidate.word, frequency, true));
+                }
+            }
+            if (depth < table.length + delta) {
+                for (char ch : depth < table.length ? table[depth] : ALPHABET) {
+                    CharTrie.Iterator iterator = candidate.iterator.clone();
+                    if (iterator.next(ch) && iterator.maxFrequency() > 0) {
+                        queue.add(new Candidate(iterator, candidate.word + ch, iterator.maxFrequency(), false));
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Words before the last one are only dropped here, when they are ready to be returned. A frontier cannot be
+     * pruned instead, since its max frequency bounds its words only from above: any frontier may still hold words
+     * of a lower frequency, which come after the last one.
+     */
+    private boolean isAfterLast(int frequency, String word) {
+        return frequency < lastFrequency || frequency == lastFrequency && word.compareTo(lastWord) > 0;
+    }
+
+    /**
+     * Either a word ready to be returned, or a trie frontier bounded by its max frequency.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+
+        private final CharTrie.Iterator iterator;
+        private final String word;
+        private final int frequency;
+        private final boolean terminal;
+
+        private Candidate(CharTrie.Iterator iterator, String word, int frequency, boolean terminal) {
+            this.iterator = iterator;
+            this.word = word;
+            this.frequency = frequency;
+            this.terminal = terminal;
+        }
+
+        /**
+         * Higher frequencies first. On ties, frontiers are expanded before any word is returned,
+         * since they may still hold an alphabetically smaller word of the same frequency.
+         */
+        @Override
+        public int compareTo(Candidate o) {
+            int c = Integer.compare(o.frequency, frequency);
+            if (c != 0) {
+                return c;
+            }
+            if (terminal != o.terminal) {
+                return terminal ? 1 : -1;
+            }
+            return word.compareTo(o.word);
+        }
+
+    }
+
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Shape of a CharTrie: fan-out and depth distributions, single-child chains and the depths of terminal Nodes,
+ * computed in one parallel pass by {@link #analyze(CharTrie)}; and the T9 ambiguity of its words,
+ * computed by {@link #ambiguity(CharTrie)}.
+ * <p>
+ * A single-child chain is a maximal path of non-root Nodes that have exactly one child and terminate no word,
+ * i.e. the Nodes that a path-compressed trie would fold into a single edge.
+ * <p>
+ * usage: TrieStatistics &lt;dictionary file&gt; [number of most ambiguous codes to list, default 20]
+ *
+ * @author ahmad
+ */
+public final class TrieStatistics {
+
+    private long nodes;
+    private long terminals;
+    private long leaves;
+    private final Histogram fanOut = new Histogram();
+    private final Histogram depth = new Histogram();
+    private final Histogram terminalDepth = new Histogram();
+    private final Histogram chainLength = new Histogram();
+
+    TrieStatistics() {
+    }
+
+    /**
+     * Analyzes the specified CharTrie, using the common pool.
+     *
+     * @param trie the CharTrie to be analyzed
+     * @return the statistics of the specified CharTrie
+     */
+    public static TrieStatistics analyze(CharTrie trie) {
+        return analyze(trie, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Analyzes the specified CharTrie, splitting the work by subtrees among the workers of the specified pool.
+     * The result is a snapshot, which is not consistent with concurrent puts.
+     *
+     * @param trie the CharTrie to be analyzed
+     * @param pool the pool whose workers analyze the subtrees
+     * @return the statistics of the specified CharTrie
+     */
+    public static TrieStatistics analyze(CharTrie trie, ForkJoinPool pool) {
+        return trie.statistics(pool);
+    }
+
+    /**
+     * Groups the words of the specified CharTrie by their T9 codes. Words that cannot be typed on the keypad,
+     * i.e. that have characters other than a..z, are left out.
+     *
+     * @param trie the CharTrie whose words are to be grouped
+     * @return the number of words of each T9 code
+     */
+    public static Map<String, Long> ambiguity(CharTrie trie) {
+        return trie.entries()
+                .parallel()
+                .map(word -> WordSuggester.toDigits(word.getValue()))
+                .filter(code -> code != null)
+                .collect(Collectors.groupingByConcurrent(code -> code, Collectors.counting()));
+    }
+
+    void addNode(int depth, int fanOut, boolean terminal) {
+        nodes++;
+        this.depth.add(depth);
+        this.fanOut.add(fanOut);
+        if (terminal) {
+            terminals++;
+            terminalDepth.add(depth);
+            if (fanOut == 0) {
+                leaves++;
+            }
+        }
+    }
+
+    void addChain(int length) {
+        chainLength.add(length);
+    }
+
+    void merge(TrieStatistics other) {
+        nodes += other.nodes;
+        terminals += other.terminals;
+        leaves += other.leaves;
+        fanOut.merge(other.fanOut);
+        depth.merge(other.depth);
+        terminalDepth.merge(other.terminalDepth);
+        chainLength.merge(other.chainLength);
+    }
+
+    /**
+     * @return the number of Nodes, including the root
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the number of Nodes that terminate a word
+     */
+    public long getTerminals() {
+        return terminals;
+    }
+
+    /**
+     * @return the number of terminal Nodes without children
+     */
+    public long getLeaves() {
+        return leaves;
+    }
+
+    /**
+     * @return the number of Nodes by their number of children
+     */
+    public Histogram getFanOut() {
+        return fanOut;
+    }
+
+    /**
+     * @return the number of Nodes by their depth, the root being at depth 0
+     */
+    public Histogram getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the number of terminal Nodes by their depth, i.e. the number of words by their length
+     */
+    public Histogram getTerminalDepth() {
+        return terminalDepth;
+    }
+
+    /**
+     * @return the number of single-child chains by their length
+     */
+    public Histogram getChainLength() {
+        return chainLength;
+    }
+
+    @Override
+    public String toString() {
+        return "nodes = " + nodes + ", terminals = " + terminals + ", leaves = " + leaves + '\n' +
+                "fan-out: " + fanOut + '\n' +
+                "depth: " + depth + '\n' +
+                "terminal depth: " + terminalDepth + '\n' +
+                "chain length: " + chainLength;
+    }
+
+    /**
+     * Counts of non-negative int values.
+     */
+    public static final class Histogram {
+
+        private long[] counts = new long[16];
+
+        Histogram() {
+        }
+
+        void add(int value) {
+            if (value >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(counts.length * 2, value + 1));
+            }
+            counts[value]++;
+        }
+
+        void merge(Histogram other) {
+            if (other.counts.length > counts.length) {
+                counts = Arrays.copyOf(counts, other.counts.length);
+            }
+            for (int i = 0; i < other.counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+        }
+
+        /**
+         * @return the count of the specified value
+         */
+        public long get(int value) {
+            return value < counts.length ? counts[value] : 0;
+        }
+
+        /**
+         * @return the highest value with a non-zero count, or -1 if there is none
+         */
+        public int max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * @return the sum of the counts
+         */
+        public long total() {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            return total;
+        }
+
+        /**
+         * @return the mean value, or 0 if there is no value
+         */
+        public double mean() {
+            long total = 0, sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i];
+                sum += counts[i] * i;
+            }
+            return total == 0 ? 0 : (double) sum / total;
+        }
+
+        /**
+         * @return the non-zero counts as value=count pairs, and the mean
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("{");
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) {
+                    sb.append(sb.length() > 1 ? ", " : "").append(i).append('=').append(counts[i]);
+                }
+            }
+            return sb.append(String.format("} mean = %.2f", mean())).toString();
+        }
+
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            throw new IllegalArgumentException(
+                    "Usage: TrieStatistics <dictionary file> [number of most ambiguous codes to list]");
+        }
+        Path src = Paths.get(args[0]);
+        int top = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        CharTrie trie = new CharTrie();
+        if (isBinary(src)) {
+            trie.importBinary(src);
+        } else {
+            trie.importDictionary(src);
+        }
+
+        long t = System.nanoTime();
+        TrieStatistics statistics = analyze(trie);
+        System.out.println(statistics);
+        System.out.printf("analyzed in %,d ms\n\n", (System.nanoTime() - t) / 1000000);
+
+        Map<String, Long> ambiguity = ambiguity(trie);
+        Histogram wordsPerCode = new Histogram();
+        long words = 0;
+        for (long count : ambiguity.values()) {
+            wordsPerCode.add((int) Math.min(count, Integer.MAX_VALUE));
+            words += count;
+        }
+        System.out.printf("T9 codes = %d, typeable words = %d, unambiguous codes = %d\n",
+                ambiguity.size(), words, wordsPerCode.get(1));
+        System.out.println("codes by number of words: " + wordsPerCode);
+        List<Map.Entry<String, Long>> mostAmbiguous = ambiguity.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(top)
+                .collect(Collectors.toList());
+        System.out.println("most ambiguous codes:");
+        for (Map.Entry<String, Long> e : mostAmbiguous) {
+            System.out.printf("  %-20s %,d words\n", e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * @return true if the specified file is in one of the binary formats, i.e. a block file or gzipped
+     */
+    private static boolean isBinary(Path src) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(Files.newInputStream(src))) {
+            int magic = inputStream.readInt();
+            return magic == BlockFile.MAGIC || (magic >>> 16) == 0x1f8b;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+}
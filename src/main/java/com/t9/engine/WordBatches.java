@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.*;
+import java.util.function.BiConsumer;
+
+/**
+ * Streaming binary dictionary format.
+ * <p>
+ * A header (magic number and version) is followed by batches of words, each prefixed by its length in bytes,
+ * and a zero length terminates the stream. A batch holds (word, frequency) records and is written as soon as
+ * it fills up, so neither writing nor reading ever holds more than one batch in memory.
+ * <p>
+ * Since version 2, records are front-coded by {@link WordSerializer}, starting over in every batch
+ * so that each batch can be decoded on its own. Version 1 records (a string and a varint) are still read.
+ *
+ * @author ahmad
+ */
+final class WordBatches {
+
+    static final int MAGIC = 0x54394442; // "T9DB"
+    static final int VERSION = 2;
+
+    /**
+     * a batch is written once its size reaches this many bytes
+     */
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    /**
+     * upper bound for the length of a batch being read, anything larger is treated as corruption
+     */
+    private static final int MAX_BATCH_SIZE = 16 * 1024 * 1024;
+
+    private WordBatches() {
+    }
+
+    /**
+     * Reads the version and the batches that follow the magic number (which has already been consumed)
+     * from the specified stream.
+     *
+     * @param inputStream the source stream
+     * @param action      the action to be performed for each word and its frequency
+     * @throws IOException if the stream is truncated or corrupted
+     */
+    static void read(DataInputStream inputStream, BiConsumer<String, Integer> action) throws IOException {
+        int version = inputStream.readInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported dictionary version: " + version);
+        }
+        byte[] batch = new byte[BATCH_SIZE];
+        Input input = new Input();
+        WordSerializer serializer = new WordSerializer();
+        int length;
+        while ((length = inputStream.readInt()) != 0) {
+            if (length < 0 || length > MAX_BATCH_SIZE) {
+                throw new IOException("Corrupted dictionary: invalid batch length " + length);
+            }
+            if (length > batch.length) {
+                batch = new byte[length];
+            }
+            inputStream.readFully(batch, 0, length);
+            input.setBuffer(batch, 0, length);
+            serializer.reset();
+            try {
+                while (input.position() < length) {
+                    if (version == 1) {
+                        action.accept(input.readString(), input.readVarInt(true));
+                    } else {
+                        Word word = serializer.read(null, input, Word.class);
+                        action.accept(word.getValue(), word.getFrequency());
+                    }
+                }
+            } catch (KryoException e) {
+                throw new IOException("Corrupted dictionary: malformed batch", e);
+            }
+        }
+    }
+
+    /**
+     * Writes words as batches to an OutputStream, starting with the header.
+     */
+    static final class Writer implements Closeable {
+
+        private final DataOutputStream outputStream;
+        private final Output batch = new Output(BATCH_SIZE, -1);
+        private final WordSerializer serializer = new WordSerializer();
+
+        Writer(OutputStream outputStream) throws IOException {
+            this.outputStream = new DataOutputStream(outputStream);
+            this.outputStream.writeInt(MAGIC);
+            this.outputStream.writeInt(VERSION);
+        }
+
+        void write(String word, int frequency) throws IOException {
+            serializer.write(batch, word, frequency);
+            if (batch.position() >= BATCH_SIZE) {
+                flushBatch();
+            }
+        }
+
+        private void flushBatch() throws IOException {
+            if (batch.position() > 0) {
+                outputStream.writeInt(batch.position());
+                outputStream.write(batch.getBuffer(), 0, batch.position());
+                batch.clear();
+                serializer.reset();
+            }
+        }
+
+        /**
+         * Writes the last batch and the terminator. A stream closed without it is read as truncated, so that a
+         * traversal that fails half way does not leave a valid dictionary of the words written so far.
+         */
+        void finish() throws IOException {
+            flushBatch();
+            outputStream.writeInt(0);
+        }
+
+        /**
+         * Closes the underlying stream; the words are complete only if {@link #finish()} has been called.
+         */
+        @Override
+        public void close() throws IOException {
+            outputStream.close();
+        }
+
+    }
+
+}
@@ -30,11 +30,31 @@ final class WordGenerator {
     }
 
     static void generate(char[][] table, CharTrie trie, BiConsumer<String, Integer> action) {
-        final ForkJoinPool pool = ForkJoinPool.commonPool();
+        generate(table, trie, action, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generates the words of the specified table in the specified CharTrie, visiting the Nodes on the workers
+     * of the specified pool. If called on a worker of the pool, the visit starts on the calling worker.
+     */
+    static void generate(char[][] table, CharTrie trie, BiConsumer<String, Integer> action, ForkJoinPool pool) {
+        final Object event = EngineEvents.beginGeneration();
+        final boolean inPool = ForkJoinTask.getPool() == pool;
         final VisitorContext ctx = new VisitorContext(table, action);
+        long visited = 0, produced = 0, spawned = table[0].length;
         for (int x = 0; x < table[0].length; x++) {
-            pool.invoke(new Visitor(x, 0, "", trie.iterator(), ctx));
+            Visitor visitor = new Visitor(x, 0, "", trie.iterator(), ctx);
+            if (inPool) {
+                visitor.invoke();
+            } else {
+                pool.invoke(visitor);
+            }
+            visited += visitor.visited;
+            produced += visitor.produced;
+            spawned += visitor.spawned;
         }
+        EngineMetrics.getInstance().recordGeneration(produced, visited, spawned);
+        EngineEvents.endGeneration(event, table.length, visited, produced, spawned);
     }
 
     private static final class VisitorContext {
@@ -57,6 +77,12 @@ final class WordGenerator {
 
         private String word;
 
+        /**
+         * the number of Nodes visited, words produced and tasks spawned by this task and its subtasks,
+         * summed up by the parent once they are joined, so that counting needs no synchronization
+         */
+        private int visited, produced, spawned;
+
         private Visitor(int x, int y, String word, CharTrie.Iterator iterator, VisitorContext ctx) {
             this.x = x;
             this.y = y;
@@ -69,6 +95,7 @@ final class WordGenerator {
         protected void compute() {
             char nextChar = ctx.table[y][x];
             if (iterator.next(nextChar)) {
+                visited = 1;
                 word += nextChar;
                 if (y + 1 < ctx.table.length) {
                     int n = ctx.table[y + 1].length;
@@ -77,7 +104,15 @@ final class WordGenerator {
                         tasks[x] = new Visitor(x, y + 1, word, iterator.clone(), ctx);
                     }
                     invokeAll(tasks);
+                    spawned = n;
+                    for (ForkJoinTask task : tasks) {
+                        Visitor visitor = (Visitor) task;
+                        visited += visitor.visited;
+                        produced += visitor.produced;
+                        spawned += visitor.spawned;
+                    }
                 } else if (iterator.frequency() > 0) {
+                    produced = 1;
                     ctx.action.accept(word, iterator.frequency());
                 }
             }
@@ -17,49 +17,90 @@
 package com.t9.engine;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.Serializer;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
-import java.nio.charset.StandardCharsets;
-
 /**
+ * Front-coded Word serializer.
+ * <p>
+ * Each word is written as the length of the prefix it shares with the previously written word,
+ * followed by the remaining characters and the frequency, all as varints.
+ * Frequencies are zig-zag encoded. Characters are written straight into the Output, without intermediate arrays.
+ * Words written in sorted (or depth-first) order share long prefixes, so most of them take only a few bytes.
+ * <p>
+ * An instance is stateful and encodes a single sequence of words, so it must not be registered with a Kryo;
+ * call {@link #reset()} before starting a new sequence.
+ *
  * @author ahmad
  */
 final class WordSerializer extends Serializer<Word> {
 
-    @Override
-    public void write(Kryo kryo, Output output, Word word) {
-        kryo.writeObject(output, concat(toBytes(word.getFrequency()), word.getValue().getBytes(StandardCharsets.UTF_8)));
+    /**
+     * the previous word of the sequence
+     */
+    private char[] previous = new char[32];
+    private int previousLength = 0;
+
+    /**
+     * Forgets the previous word, so the next word is written (or read) in full.
+     */
+    void reset() {
+        previousLength = 0;
     }
 
     @Override
-    public Word read(Kryo kryo, Input input, Class<Word> type) {
-        byte[] bytes = kryo.readObject(input, byte[].class);
-        return new Word(new String(bytes, 4, bytes.length - 4, StandardCharsets.UTF_8), fromBytes(bytes));
+    public void write(Kryo kryo, Output output, Word word) {
+        write(output, word.getValue(), word.getFrequency());
     }
 
-    private static byte[] toBytes(int i) {
-        return new byte[]{
-                (byte) (i >> 24 & 0xff),
-                (byte) (i >> 16 & 0xff),
-                (byte) (i >> 8 & 0xff),
-                (byte) (i & 0xff)
-        };
+    void write(Output output, String value, int frequency) {
+        int length = value.length();
+        int shared = 0;
+        int max = Math.min(length, previousLength);
+        while (shared < max && previous[shared] == value.charAt(shared)) {
+            shared++;
+        }
+        output.writeVarInt(shared, true);
+        output.writeVarInt(length - shared, true);
+        ensureCapacity(length);
+        for (int i = shared; i < length; i++) {
+            char ch = value.charAt(i);
+            output.writeVarInt(ch, true);
+            previous[i] = ch;
+        }
+        previousLength = length;
+        output.writeVarInt(frequency, false);
     }
 
-    private static int fromBytes(byte[] bytes) {
-        return (bytes[0] & 0xff) << 24
-                | (bytes[1] & 0xff) << 16
-                | (bytes[2] & 0xff) << 8
-                | (bytes[3] & 0xff);
+    @Override
+    public Word read(Kryo kryo, Input input, Class<Word> type) {
+        int shared = input.readVarInt(true);
+        int suffix = input.readVarInt(true);
+        if (shared < 0 || shared > previousLength || suffix < 0 || suffix > Integer.MAX_VALUE - shared) {
+            throw new KryoException("Invalid front coding: shared = " + shared + ", suffix = " + suffix);
+        }
+        int length = shared + suffix;
+        // each character takes at least one byte, but a streaming Input cannot tell how many bytes are left,
+        // so the buffer grows with the characters actually read, and a bogus suffix fails with a buffer underflow
+        ensureCapacity(Math.min(length, shared + input.limit() - input.position()));
+        for (int i = shared; i < length; i++) {
+            if (i == previous.length) {
+                ensureCapacity(i + 1);
+            }
+            previous[i] = (char) input.readVarInt(true);
+        }
+        previousLength = length;
+        return new Word(new String(previous, 0, length), input.readVarInt(false));
     }
 
-    private static byte[] concat(byte[] a, byte[] b) {
-        byte[] c = new byte[a.length + b.length];
-        System.arraycopy(a, 0, c, 0, a.length);
-        System.arraycopy(b, 0, c, a.length, b.length);
-        return c;
+    private void ensureCapacity(int length) {
+        if (length > previous.length) {
+            char[] grown = new char[Math.max(previous.length * 2, length)];
+            System.arraycopy(previous, 0, grown, 0, previous.length);
+            previous = grown;
+        }
     }
 
 }
@@ -21,7 +21,9 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -42,6 +44,19 @@ public final class WordSuggester {
             {'w', 'x', 'y', 'z'}
     };
 
+    /**
+     * the digit of each character a..z
+     */
+    private static final char[] KEYS = new char[26];
+
+    static {
+        for (int i = 0; i < T9_TABLE.length; i++) {
+            for (char ch : T9_TABLE[i]) {
+                KEYS[ch - 'a'] = (char) ('2' + i);
+            }
+        }
+    }
+
     public static Stream<Word> suggest(CharTrie trie, String input) {
         return suggest(trie, input, 0);
     }
@@ -50,26 +65,121 @@ public final class WordSuggester {
         if (delta < 0) {
             throw new IllegalArgumentException("delta must be greater than or equal to zero.");
         }
+        Object event = EngineEvents.beginSuggest();
+        long start = System.nanoTime();
         List<Map<String, Integer>> words = new ArrayList<>();
         suggest(trie, input, delta, words);
-        return words.stream()
+        return rank(words, input, delta, start, event);
+    }
+
+    /**
+     * Ranks the words generated for a suggestion begun at the specified time, and records it. The recorded latency
+     * covers the generation and the ranking of the words, which are ranked before they are returned; it does not
+     * cover the consumption of the returned stream.
+     *
+     * @param words the maps of words to frequencies generated for the input
+     * @param start the {@link System#nanoTime()} at which the suggestion began
+     * @param event the event returned by {@link EngineEvents#beginSuggest()}
+     * @return the distinct words, in descending order of frequency
+     */
+    static Stream<Word> rank(List<Map<String, Integer>> words, String input, int delta, long start, Object event) {
+        EngineMetrics metrics = EngineMetrics.getInstance();
+        List<Word> ranked = words.stream()
                 .map(Map::entrySet)
                 .flatMap(Collection::stream)
                 .map(Word::from)
                 .distinct()
-                .sorted((a, b) -> b.compareTo(a));
+                .sorted((a, b) -> b.compareTo(a))
+                .collect(Collectors.toList());
+        metrics.recordSuggest(input.length(), System.nanoTime() - start);
+        if (event != null) {
+            int candidates = 0;
+            for (Map<String, Integer> map : words) {
+                candidates += map.size();
+            }
+            EngineEvents.endSuggest(event, input.length(), delta, candidates);
+        }
+        return ranked.stream().peek(word -> metrics.recordReturned());
     }
 
-    private static void suggest(CharTrie trie, String input, int delta, List<Map<String, Integer>> wordList) {
+    /**
+     * Returns a lazy iterator over the suggestions for the specified input, in descending order of frequency.
+     * Words with equal frequencies are ordered alphabetically, so the order is stable across calls.
+     *
+     * @param trie  the dictionary
+     * @param input digits 2..9
+     * @param delta the number of extra characters a suggested word may have
+     * @return the suggestion iterator
+     */
+    public static SuggestionIterator suggestions(CharTrie trie, String input, int delta) {
+        if (delta < 0) {
+            throw new IllegalArgumentException("delta must be greater than or equal to zero.");
+        }
+        return new SuggestionIterator(trie, input, delta);
+    }
+
+    /**
+     * Returns a lazy iterator continuing right after the last suggestion returned before the specified cursor was taken.
+     * <p>
+     * A cursor holds no trie state, so resuming walks the trie again as far as the pages before the cursor did,
+     * skipping the words it already returned: getting the next page costs about as much as computing
+     * all the pages up to it again. Keep the iterator itself around to page through many suggestions.
+     *
+     * @param trie   the dictionary
+     * @param cursor a cursor obtained from {@link SuggestionIterator#cursor()}
+     * @return the suggestion iterator
+     * @see SuggestionIterator#cursor()
+     */
+    public static SuggestionIterator resume(CharTrie trie, String cursor) {
+        return SuggestionIterator.resume(trie, cursor);
+    }
+
+    /**
+     * Generates the words of the specified input and of its extensions by up to delta digits,
+     * adding a map of words to frequencies per input to the specified list.
+     */
+    static void suggest(CharTrie trie, String input, int delta, List<Map<String, Integer>> wordList) {
+        suggest(trie, input, delta, wordList, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Same as {@link #suggest(CharTrie, String, int, List)}, generating the words on the workers of the specified pool.
+     */
+    static void suggest(CharTrie trie, String input, int delta, List<Map<String, Integer>> wordList,
+                        ForkJoinPool pool) {
         final Map<String, Integer> words = new ConcurrentHashMap<>();
-        WordGenerator.generate(mapTable(input), trie, words::put);
+        WordGenerator.generate(mapTable(input), trie, words::put, pool);
         wordList.add(words);
         if (--delta >= 0) for (int i = 2; i <= 9; i++) {
-            suggest(trie, input + i, delta, wordList);
+            suggest(trie, input + i, delta, wordList, pool);
+        }
+    }
+
+    /**
+     * @param ch a character
+     * @return the digit that types the specified character, or 0 if it is not a..z
+     */
+    static char toDigit(char ch) {
+        return ch < 'a' || ch > 'z' ? 0 : KEYS[ch - 'a'];
+    }
+
+    /**
+     * @param word a word
+     * @return the digits that type the specified word, or null if it has characters other than a..z
+     */
+    public static String toDigits(String word) {
+        char[] digits = new char[word.length()];
+        for (int i = 0; i < digits.length; i++) {
+            char ch = word.charAt(i);
+            if (ch < 'a' || ch > 'z') {
+                return null;
+            }
+            digits[i] = KEYS[ch - 'a'];
         }
+        return new String(digits);
     }
 
-    private static char[][] mapTable(String input) {
+    static char[][] mapTable(String input) {
         int n = input.length();
         if (n < 1 || !INPUT_PATTERN.matcher(input).matches()) {
             throw new IllegalArgumentException("Input string must contains only digits 2..9");
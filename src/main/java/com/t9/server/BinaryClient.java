@@ -0,0 +1,202 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.server;
+
+import com.t9.engine.Word;
+import com.t9.server.BinaryProtocol.Request;
+import com.t9.server.BinaryProtocol.Response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client of a {@link BinarySuggestionServer}, on a single connection.
+ * <p>
+ * Requests are written as soon as they are made, without waiting for the responses of the previous ones, and
+ * their futures are completed by a reader thread as the responses arrive, in whatever order. The methods may be
+ * called from any number of threads. Once the connection breaks, the pending futures and all later ones complete
+ * exceptionally. A future that is completed or cancelled by its caller, e.g. on a timeout, drops its request.
+ *
+ * @author ahmad
+ */
+public final class BinaryClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final Map<Integer, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Thread reader;
+    private volatile IOException failure;
+
+    private BinaryClient(SocketChannel channel) {
+        this.channel = channel;
+        reader = new Thread(this::read, "t9-binary-client-" + channel.socket().getLocalPort());
+        reader.setDaemon(true);
+    }
+
+    /**
+     * @param address the address of the server
+     * @return a client connected to the server at the specified address
+     * @throws IOException if the connection cannot be made
+     */
+    public static BinaryClient connect(InetSocketAddress address) throws IOException {
+        return connect(address, 0);
+    }
+
+    /**
+     * @param address       the address of the server
+     * @param timeoutMillis the time the connection may take to be made, or 0 to wait as long as it takes
+     * @return a client connected to the server at the specified address
+     * @throws IOException if the connection cannot be made in time
+     */
+    public static BinaryClient connect(InetSocketAddress address, int timeoutMillis) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(address, timeoutMillis);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        BinaryClient client = new BinaryClient(channel);
+        client.reader.start();
+        return client;
+    }
+
+    /**
+     * @return the first k suggestions for the specified digits; the future fails with an IllegalArgumentException
+     * if the server rejects the arguments, or with an IOException if the connection breaks
+     */
+    public CompletableFuture<List<Word>> suggest(String digits, int delta, int k) {
+        int id = ids.incrementAndGet();
+        return droppable(id, send(Request.suggest(id, digits, delta, k)).thenApply(response -> response.words));
+    }
+
+    /**
+     * @return the frequency of the specified word after learning it; the future fails as for
+     * {@link #suggest(String, int, int)}
+     */
+    public CompletableFuture<Integer> learn(String word, int count) {
+        int id = ids.incrementAndGet();
+        return droppable(id, send(Request.learn(id, word, count)).thenApply(response -> response.frequency));
+    }
+
+    /**
+     * @return the specified future, which drops the request with the specified id if it fails before the response
+     * arrives, so that the response is ignored
+     */
+    private <T> CompletableFuture<T> droppable(int id, CompletableFuture<T> future) {
+        future.whenComplete((result, e) -> {
+            if (e != null) {
+                pending.remove(id);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Response> send(Request request) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        pending.put(request.id, future);
+        try {
+            if (failure != null) {
+                throw failure;
+            }
+            ByteBuffer frame = BinaryProtocol.frame(BinaryProtocol.REQUEST_SERIALIZER, request);
+            synchronized (channel) {
+                while (frame.hasRemaining()) {
+                    channel.write(frame);
+                }
+            }
+        } catch (IOException e) {
+            pending.remove(request.id);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void read() {
+        ByteBuffer input = ByteBuffer.allocate(4 + BinaryProtocol.MAX_FRAME_SIZE);
+        try {
+            while (channel.read(input) >= 0) {
+                input.flip();
+                Response response;
+                while ((response = BinaryProtocol.nextMessage(BinaryProtocol.RESPONSE_SERIALIZER, input)) != null) {
+                    CompletableFuture<Response> future = pending.remove(response.id);
+                    if (future == null) {
+                        continue;
+                    }
+                    if (response.status == BinaryProtocol.OK) {
+                        future.complete(response);
+                    } else {
+                        future.completeExceptionally(new IllegalArgumentException(response.error));
+                    }
+                }
+                input.compact();
+            }
+            fail(new IOException("Connection closed by the server"));
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException | Error e) {
+            // the pending futures must not be left hanging whatever happens to this thread
+            fail(new IOException("Reader failed", e));
+            throw e;
+        }
+    }
+
+    private void fail(IOException e) {
+        failure = e;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        for (Integer id : pending.keySet()) {
+            CompletableFuture<Response> future = pending.remove(id);
+            if (future != null) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * @return false once the connection has broken or been closed
+     */
+    public boolean isOpen() {
+        return failure == null && channel.isOpen();
+    }
+
+    /**
+     * Closes the connection, failing the requests that have not been responded to.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.server;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.t9.engine.Word;
+import com.t9.util.serialization.KryoSerializer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Length-prefixed binary protocol of {@link BinarySuggestionServer}.
+ * <p>
+ * Every message is a frame: the length of the payload as a 4 byte big-endian int, followed by the payload,
+ * a Request or a Response written by a {@link KryoSerializer}, with Kryo references off, so the payload has
+ * no reference or class prefix. A client may send any number of requests without
+ * waiting for their responses; each response carries the id of its request, and responses are sent as soon as
+ * they are ready, which is not necessarily in the order of the requests.
+ * <pre>
+ * request  = id (varint), operation (byte),
+ *            suggest: digits (string), delta (varint), k (varint)
+ *            learn:   word (string), count (varint)
+ * response = id (varint), status (byte),
+ *            ok, suggest: word count (zig-zag varint), (word (string), frequency (zig-zag varint)) * word count
+ *            ok, learn:   -1 (zig-zag varint), frequency (zig-zag varint)
+ *            error:       message (string)
+ * string   = UTF-8 length + 1 (varint), or 0 for null, followed by the UTF-8 bytes
+ * </pre>
+ * Decoding checks every length against the bytes left in the frame before allocating, and fails with an
+ * IOException on any malformed payload.
+ *
+ * @author ahmad
+ */
+final class BinaryProtocol {
+
+    /**
+     * the largest payload accepted, on both sides
+     */
+    static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    static final byte SUGGEST = 1;
+    static final byte LEARN = 2;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    static final KryoSerializer<Request> REQUEST_SERIALIZER = new KryoSerializer<>(() -> {
+        Kryo kryo = new Kryo();
+        kryo.setReferences(false);
+        kryo.register(Request.class, new RequestSerializer());
+        return kryo;
+    }, Request.class);
+
+    static final KryoSerializer<Response> RESPONSE_SERIALIZER = new KryoSerializer<>(() -> {
+        Kryo kryo = new Kryo();
+        kryo.setReferences(false);
+        kryo.register(Response.class, new ResponseSerializer());
+        return kryo;
+    }, Response.class);
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * @return the frame of the specified message, ready to be written
+     * @throws IOException if the message is larger than {@link #MAX_FRAME_SIZE}
+     */
+    static <T> ByteBuffer frame(KryoSerializer<T> serializer, T message) throws IOException {
+        byte[] payload = serializer.serialize(message);
+        if (payload.length > MAX_FRAME_SIZE) {
+            throw new IOException("Frame too large: " + payload.length + " bytes");
+        }
+        ByteBuffer frame = ByteBuffer.allocate(4 + payload.length);
+        frame.putInt(payload.length).put(payload).flip();
+        return frame;
+    }
+
+    /**
+     * Reads the next message from the specified buffer, which is in read mode, if a whole frame of it is there.
+     *
+     * @return the message, or null if the buffer holds only part of the next frame, which is then left unread
+     * @throws IOException if the frame is larger than {@link #MAX_FRAME_SIZE} or its payload is malformed,
+     *                     after which the stream cannot be resynchronized
+     */
+    static <T> T nextMessage(KryoSerializer<T> serializer, ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 4) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        if (buffer.remaining() < 4 + length) {
+            return null;
+        }
+        int limit = buffer.limit();
+        buffer.position(start + 4).limit(start + 4 + length);
+        try {
+            return serializer.read(buffer);
+        } catch (RuntimeException e) {
+            // a KryoException, or any other exception of a decoder reading garbage
+            throw new IOException("Malformed frame", e);
+        } finally {
+            buffer.limit(limit).position(start + 4 + length);
+        }
+    }
+
+    static final class Request {
+
+        final int id;
+        final byte operation;
+        /**
+         * the digits to suggest for, or the word to learn
+         */
+        final String text;
+        final int delta;
+        /**
+         * the number of suggestions, or the number of occurrences to learn
+         */
+        final int count;
+
+        private Request(int id, byte operation, String text, int delta, int count) {
+            this.id = id;
+            this.operation = operation;
+            this.text = text;
+            this.delta = delta;
+            this.count = count;
+        }
+
+        static Request suggest(int id, String digits, int delta, int k) {
+            return new Request(id, SUGGEST, digits, delta, k);
+        }
+
+        static Request learn(int id, String word, int count) {
+            return new Request(id, LEARN, word, 0, count);
+        }
+
+    }
+
+    static final class Response {
+
+        final int id;
+        final byte status;
+        final List<Word> words;
+        final int frequency;
+        final String error;
+
+        private Response(int id, byte status, List<Word> words, int frequency, String error) {
+            this.id = id;
+            this.status = status;
+            this.words = words;
+            this.frequency = frequency;
+            this.error = error;
+        }
+
+        static Response suggestions(int id, List<Word> words) {
+            return new Response(id, OK, words, 0, null);
+        }
+
+        static Response learned(int id, int frequency) {
+            return new Response(id, OK, null, frequency, null);
+        }
+
+        static Response error(int id, String message) {
+            return new Response(id, ERROR, null, 0, message);
+        }
+
+    }
+
+    private static void writeText(Output output, String text) {
+        if (text == null) {
+            output.writeVarInt(0, true);
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        output.writeVarInt(bytes.length + 1, true);
+        output.writeBytes(bytes);
+    }
+
+    private static String readText(Input input) {
+        int length = input.readVarInt(true) - 1;
+        if (length == -1) {
+            return null;
+        }
+        checkRemaining(input, length);
+        return new String(input.readBytes(length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Fails unless the frame has at least the specified number of bytes left, before they are allocated for.
+     */
+    private static void checkRemaining(Input input, int length) {
+        if (length < 0 || length > MAX_FRAME_SIZE || length > input.limit() - input.position()) {
+            throw new KryoException("Invalid length: " + length);
+        }
+    }
+
+    private static final class RequestSerializer extends Serializer<Request> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Request request) {
+            output.writeVarInt(request.id, true);
+            output.writeByte(request.operation);
+            writeText(output, request.text);
+            if (request.operation == SUGGEST) {
+                output.writeVarInt(request.delta, true);
+            }
+            output.writeVarInt(request.count, true);
+        }
+
+        @Override
+        public Request read(Kryo kryo, Input input, Class<Request> type) {
+            int id = input.readVarInt(true);
+            byte operation = input.readByte();
+            String text = readText(input);
+            switch (operation) {
+                case SUGGEST:
+                    int delta = input.readVarInt(true);
+                    return Request.suggest(id, text, delta, input.readVarInt(true));
+                case LEARN:
+                    return Request.learn(id, text, input.readVarInt(true));
+                default:
+                    throw new KryoException("Unknown operation: " + operation);
+            }
+        }
+
+    }
+
+    private static final class ResponseSerializer extends Serializer<Response> {
+
+        @Override
+        public void write(Kryo kryo, Output output, Response response) {
+            output.writeVarInt(response.id, true);
+            output.writeByte(response.status);
+            if (response.status == ERROR) {
+                writeText(output, response.error);
+            } else if (response.words != null) {
+                // a learn response is told apart from a suggest one by a negative word count
+                output.writeVarInt(response.words.size(), false);
+                for (Word word : response.words) {
+                    writeText(output, word.getValue());
+                    output.writeVarInt(word.getFrequency(), false);
+                }
+            } else {
+                output.writeVarInt(-1, false);
+                output.writeVarInt(response.frequency, false);
+            }
+        }
+
+        @Override
+        public Response read(Kryo kryo, Input input, Class<Response> type) {
+            int id = input.readVarInt(true);
+            byte status = input.readByte();
+            if (status == ERROR) {
+                return Response.error(id, readText(input));
+            }
+            int size = input.readVarInt(false);
+            if (size < 0) {
+                return Response.learned(id, input.readVarInt(false));
+            }
+            // every word takes at least two bytes
+            checkRemaining(input, 2 * size);
+            List<Word> words = size == 0 ? Collections.emptyList() : new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                String word = readText(input);
+                if (word == null) {
+                    throw new KryoException("Null word");
+                }
+                words.add(new Word(word, input.readVarInt(false)));
+            }
+            return Response.suggestions(id, words);
+        }
+
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.server;
+
+import com.t9.engine.CharTrie;
+import com.t9.engine.JournaledDictionary;
+import com.t9.server.BinaryProtocol.Request;
+import com.t9.server.BinaryProtocol.Response;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Server of the {@link BinaryProtocol}, on a single non-blocking selector thread.
+ * <p>
+ * The selector thread accepts connections, reads and decodes request frames, and writes response frames.
+ * Requests are handled by a fixed pool of workers behind a bounded queue, so the requests pipelined on a connection
+ * are handled concurrently and their responses are written in the order they complete. When the queue is full,
+ * the selector thread answers the request with an "overloaded" error right away, without handling it.
+ *
+ * @author ahmad
+ */
+public final class BinarySuggestionServer {
+
+    private static final Logger LOGGER = Logger.getLogger(BinarySuggestionServer.class.getName());
+
+    private static final int MAX_WRITE_BATCH = 64;
+    /**
+     * the number of unwritten responses past which a connection is not read, until its client catches up
+     */
+    private static final int MAX_UNWRITTEN_RESPONSES = 1024;
+
+    private final SuggestionService service;
+    private final ServerSocketChannel serverChannel;
+    private final Selector selector;
+    private final ThreadPoolExecutor workers;
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    /**
+     * connections with responses queued since the selector thread last wrote to them
+     */
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Creates a server of the specified CharTrie, which learns words by putting them in the CharTrie.
+     *
+     * @param trie          the dictionary to be served
+     * @param address       the address to bind to
+     * @param threads       the number of workers
+     * @param queueCapacity the number of requests that may wait for a worker
+     * @throws IOException if the address cannot be bound
+     */
+    public BinarySuggestionServer(CharTrie trie, InetSocketAddress address, int threads, int queueCapacity)
+            throws IOException {
+        this(trie, null, address, threads, queueCapacity);
+    }
+
+    /**
+     * Creates a server of the specified journaled dictionary, which learns words durably.
+     *
+     * @param dictionary    the dictionary to be served
+     * @param address       the address to bind to
+     * @param threads       the number of workers
+     * @param queueCapacity the number of requests that may wait for a worker
+     * @throws IOException if the address cannot be bound
+     */
+    public BinarySuggestionServer(JournaledDictionary dictionary, InetSocketAddress address, int threads,
+                                  int queueCapacity) throws IOException {
+        this(dictionary.getTrie(), dictionary, address, threads, queueCapacity);
+    }
+
+    private BinarySuggestionServer(CharTrie trie, JournaledDictionary dictionary, InetSocketAddress address,
+                                   int threads, int queueCapacity) throws IOException {
+        service = new SuggestionService(trie, dictionary);
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "t9-binary-worker-" + workerCount.incrementAndGet()));
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            selector.close();
+            throw e;
+        }
+        selectorThread = new Thread(this::run, "t9-binary-selector");
+    }
+
+    public void start() {
+        selectorThread.start();
+    }
+
+    /**
+     * Closes all connections, and waits up to the specified delay for the workers to finish.
+     *
+     * @param delaySeconds the maximum time to wait for the workers
+     */
+    public void stop(int delaySeconds) {
+        running = false;
+        selector.wakeup();
+        workers.shutdown();
+        try {
+            selectorThread.join(TimeUnit.SECONDS.toMillis(delaySeconds));
+            workers.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the address the server is bound to, whose port is the actual one if port 0 was requested
+     */
+    public InetSocketAddress getAddress() {
+        try {
+            return (InetSocketAddress) serverChannel.getLocalAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException("server is closed.", e);
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Connection connection;
+                while ((connection = ready.poll()) != null) {
+                    Connection c = connection;
+                    guard(c, c::flush);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        Connection c = (Connection) key.attachment();
+                        guard(c, () -> {
+                            if (key.isReadable()) {
+                                c.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                c.flush();
+                            }
+                        });
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Selector failed, stopping the server", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() != null) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            try {
+                selector.close();
+                serverChannel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to close the server channel", e);
+            }
+        }
+    }
+
+    /**
+     * Runs an operation of the specified connection on the selector thread, closing the connection if it fails
+     * unexpectedly, so that no connection can stop the selector thread.
+     */
+    private static void guard(Connection connection, Runnable operation) {
+        try {
+            operation.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Connection failed, closing it", e);
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        SocketChannel channel;
+        try {
+            while ((channel = serverChannel.accept()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    Connection connection = new Connection(channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    channel.close();
+                }
+            }
+        } catch (IOException e) {
+            // e.g. out of file descriptors; the pending connections are accepted on the next select
+            LOGGER.log(Level.WARNING, "Failed to accept a connection", e);
+        }
+    }
+
+    private Response handle(Request request) {
+        try {
+            switch (request.operation) {
+                case BinaryProtocol.SUGGEST:
+                    return Response.suggestions(request.id, service.suggest(request.text, request.delta, request.count));
+                case BinaryProtocol.LEARN:
+                    return Response.learned(request.id, service.learn(request.text, request.count));
+                default:
+                    return Response.error(request.id, "unknown operation: " + request.operation);
+            }
+        } catch (IllegalArgumentException e) {
+            return Response.error(request.id, e.getMessage());
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Failed to handle request " + request.id, e);
+            return Response.error(request.id, "internal error");
+        }
+    }
+
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer input = ByteBuffer.allocate(4 + BinaryProtocol.MAX_FRAME_SIZE);
+
+        /**
+         * response frames queued by the workers
+         */
+        private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<>();
+        /**
+         * response frames taken by the selector thread, the first of which may be partly written
+         */
+        private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Runs on the selector thread.
+         */
+        private void read() {
+            try {
+                if (channel.read(input) < 0) {
+                    close();
+                    return;
+                }
+                input.flip();
+                Request request;
+                while ((request = BinaryProtocol.nextMessage(BinaryProtocol.REQUEST_SERIALIZER, input)) != null) {
+                    Request r = request;
+                    try {
+                        workers.execute(() -> respond(handle(r)));
+                    } catch (RejectedExecutionException e) {
+                        // the queue is full, or the server is stopping
+                        respond(Response.error(r.id, "overloaded"));
+                    }
+                }
+                input.compact();
+            } catch (IOException e) {
+                // a broken connection, or a malformed frame after which the stream cannot be resynchronized
+                close();
+            }
+        }
+
+        /**
+         * Runs on a worker, or on the selector thread when the queue of the workers is full.
+         */
+        private void respond(Response response) {
+            try {
+                responses.add(BinaryProtocol.frame(BinaryProtocol.RESPONSE_SERIALIZER, response));
+            } catch (IOException e) {
+                // the limits of the service keep responses well below the largest frame
+                throw new IllegalStateException(e);
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                ready.add(this);
+                // also when called on the selector thread, so that its next select does not block
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Runs on the selector thread. Writes as many of the queued responses as the socket takes,
+         * and waits for the socket to become writable if some are left.
+         */
+        private void flush() {
+            scheduled.set(false);
+            if (!key.isValid()) {
+                responses.clear();
+                return;
+            }
+            try {
+                ByteBuffer frame;
+                while ((frame = responses.poll()) != null) {
+                    writing.add(frame);
+                }
+                while (!writing.isEmpty()) {
+                    ByteBuffer[] batch = writing.stream().limit(MAX_WRITE_BATCH).toArray(ByteBuffer[]::new);
+                    channel.write(batch);
+                    while (!writing.isEmpty() && !writing.peek().hasRemaining()) {
+                        writing.poll();
+                    }
+                    if (batch[batch.length - 1].hasRemaining()) {
+                        break;
+                    }
+                }
+                int ops = writing.size() < MAX_UNWRITTEN_RESPONSES ? SelectionKey.OP_READ : 0;
+                key.interestOps(writing.isEmpty() ? ops : ops | SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            writing.clear();
+            responses.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.server;
+
+import com.t9.engine.Word;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coordinator of a cluster of {@link ClusterWorker}s, each serving the words of a range of T9 codes over the
+ * {@link BinaryProtocol}.
+ * <p>
+ * A suggestion is sent only to the partitions whose ranges overlap the codes starting with its digits, and
+ * their first k suggestions are merged into the first k of the cluster. A partition may have several workers,
+ * which serve the same range: a request goes to the first one that is connected, and is sent to the next one if
+ * the connection breaks or the worker does not respond in time. A disconnected worker is reconnected on a later
+ * request, at most once a second, so that a restarted worker is used again; connections are made by a connector
+ * thread, and have the timeout to be made. If no worker of a partition responds, the suggestions are returned
+ * without its words, and are marked as partial.
+ * <p>
+ * A learned word is sent to all workers of the partition that has it. A restarted worker does not
+ * have the words learned while it was down, nor those it learned before, unless it loads them itself.
+ *
+ * @author ahmad
+ */
+public final class ClusterCoordinator implements Closeable {
+
+    private static final long RECONNECT_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final List<Partition> partitions = new ArrayList<>();
+    private final long timeoutMillis;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "t9-cluster-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService connector = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "t9-cluster-connector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder partialResults = new LongAdder();
+    private final LongAdder reroutes = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    /**
+     * @param workers       the addresses of the workers of each range, in order of preference, where the ranges
+     *                      must be contiguous and cover all codes, as those of {@link DigitRange#split}
+     * @param timeoutMillis the time a worker has to respond to a request, and a connection to be made
+     */
+    public ClusterCoordinator(Map<DigitRange, List<InetSocketAddress>> workers, long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        for (Map.Entry<DigitRange, List<InetSocketAddress>> e : workers.entrySet()) {
+            if (e.getValue().isEmpty()) {
+                throw new IllegalArgumentException("range " + e.getKey() + " has no workers.");
+            }
+            partitions.add(new Partition(e.getKey(), e.getValue()));
+        }
+        partitions.sort((a, b) -> a.range.getFrom().compareTo(b.range.getFrom()));
+        String from = "";
+        for (Partition partition : partitions) {
+            if (from == null || !partition.range.getFrom().equals(from)) {
+                throw new IllegalArgumentException("ranges must be contiguous and cover all codes.");
+            }
+            from = partition.range.getTo();
+        }
+        if (from != null) {
+            throw new IllegalArgumentException("ranges must be contiguous and cover all codes.");
+        }
+    }
+
+    /**
+     * Returns the first k suggestions for the specified digits. The future does not fail because of the workers:
+     * partitions none of whose workers respond in time are left out of the result.
+     *
+     * @throws IllegalArgumentException if the arguments are out of the limits of the workers
+     */
+    public CompletableFuture<Result> suggest(String digits, int delta, int k) {
+        SuggestionService.checkSuggest(digits, delta, k);
+        requests.increment();
+        List<Partition> owners = new ArrayList<>();
+        List<CompletableFuture<List<Word>>> parts = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (partition.range.overlaps(digits)) {
+                owners.add(partition);
+                parts.add(partition.suggest(digits, delta, k, 0).exceptionally(e -> null));
+            }
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<Word> words = new ArrayList<>();
+            List<DigitRange> missing = new ArrayList<>();
+            for (int i = 0; i < owners.size(); i++) {
+                List<Word> part = parts.get(i).join();
+                if (part == null) {
+                    missing.add(owners.get(i).range);
+                } else {
+                    words.addAll(part);
+                }
+            }
+            if (!missing.isEmpty()) {
+                partialResults.increment();
+            }
+            words.sort((a, b) -> b.compareTo(a));
+            return new Result(words.size() > k ? words.subList(0, k) : words, missing);
+        });
+    }
+
+    /**
+     * Learns the specified word on the workers of its partition.
+     *
+     * @return the frequency of the word after learning it, as reported by the first worker to respond;
+     * the future fails if no worker of the partition learns it in time
+     * @throws IllegalArgumentException if the arguments are out of the limits of the workers
+     */
+    public CompletableFuture<Integer> learn(String word, int count) {
+        SuggestionService.checkWord(word, count);
+        Partition owner = null;
+        for (Partition partition : partitions) {
+            if (partition.range.containsWord(word)) {
+                owner = partition;
+                break;
+            }
+        }
+        List<CompletableFuture<Integer>> sent = new ArrayList<>();
+        for (Worker worker : owner.workers) {
+            sent.add(worker.client().thenCompose(client -> client == null
+                    ? failed(new IOException("worker " + worker.address + " is not connected"))
+                    : within(client.learn(word, count))));
+        }
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(sent.size());
+        for (CompletableFuture<Integer> future : sent) {
+            future.whenComplete((frequency, e) -> {
+                if (e == null) {
+                    result.complete(frequency);
+                } else if (remaining.decrementAndGet() == 0) {
+                    result.completeExceptionally(unwrap(e));
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Fails the specified future with a TimeoutException unless it completes in time. The futures of a
+     * {@link BinaryClient} then drop their requests.
+     */
+    private <T> CompletableFuture<T> within(CompletableFuture<T> future) {
+        ScheduledFuture<?> timeout = timer.schedule(
+                () -> future.completeExceptionally(new TimeoutException()), timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((r, e) -> timeout.cancel(false));
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * @return the ranges of the partitions, in order
+     */
+    public List<DigitRange> getRanges() {
+        List<DigitRange> ranges = new ArrayList<>(partitions.size());
+        for (Partition partition : partitions) {
+            ranges.add(partition.range);
+        }
+        return ranges;
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return the number of suggestions returned without the words of some partitions
+     */
+    public long getPartialResults() {
+        return partialResults.sum();
+    }
+
+    /**
+     * @return the number of requests sent to a worker other than the first of their partition
+     */
+    public long getReroutes() {
+        return reroutes.sum();
+    }
+
+    /**
+     * @return the number of connections made to workers, including the first ones
+     */
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    /**
+     * Closes the connections to the workers, failing the requests that have not been responded to.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        for (Partition partition : partitions) {
+            for (Worker worker : partition.workers) {
+                worker.close();
+            }
+        }
+        connector.shutdown();
+    }
+
+    private final class Partition {
+
+        private final DigitRange range;
+        private final List<Worker> workers = new ArrayList<>();
+
+        private Partition(DigitRange range, List<InetSocketAddress> addresses) {
+            this.range = range;
+            for (InetSocketAddress address : addresses) {
+                workers.add(new Worker(address));
+            }
+        }
+
+        /**
+         * Sends the request to the first connected worker from the specified index, and to the next ones if the
+         * connection breaks or the worker does not respond in time.
+         */
+        private CompletableFuture<List<Word>> suggest(String digits, int delta, int k, int from) {
+            if (from == workers.size()) {
+                return failed(new IOException("no worker of " + range + " responded"));
+            }
+            int next = from + 1;
+            return workers.get(from).client().thenCompose(client -> {
+                if (client == null) {
+                    return suggest(digits, delta, k, next);
+                }
+                if (from > 0) {
+                    reroutes.increment();
+                }
+                return within(client.suggest(digits, delta, k)).handle((words, e) -> {
+                    if (e == null) {
+                        return CompletableFuture.completedFuture(words);
+                    }
+                    Throwable cause = unwrap(e);
+                    if (cause instanceof IOException || cause instanceof TimeoutException) {
+                        return suggest(digits, delta, k, next);
+                    }
+                    return ClusterCoordinator.<List<Word>>failed(cause);
+                }).thenCompose(future -> future);
+            });
+        }
+
+    }
+
+    private final class Worker {
+
+        private final InetSocketAddress address;
+        /**
+         * the connection being made, or the last one made, completed with null if it failed
+         */
+        private CompletableFuture<BinaryClient> connection;
+        private long retryAt;
+        private boolean closed;
+
+        private Worker(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * Returns the connection to the worker, connecting it on the connector if it is broken.
+         *
+         * @return a future of a connected client, or of null if the worker is down, in which case it is not tried
+         * again for a second
+         */
+        private synchronized CompletableFuture<BinaryClient> client() {
+            if (closed) {
+                return CompletableFuture.completedFuture(null);
+            }
+            if (connection != null) {
+                if (!connection.isDone()) {
+                    return connection;
+                }
+                BinaryClient client = connection.join();
+                if (client != null && client.isOpen()) {
+                    return connection;
+                }
+                if (client != null) {
+                    close(client);
+                } else if (System.nanoTime() - retryAt < 0) {
+                    return connection;
+                }
+            }
+            connection = CompletableFuture.supplyAsync(this::connect, connector);
+            return connection;
+        }
+
+        private BinaryClient connect() {
+            try {
+                BinaryClient client = BinaryClient.connect(address, (int) Math.min(timeoutMillis, Integer.MAX_VALUE));
+                reconnects.increment();
+                return client;
+            } catch (IOException e) {
+                synchronized (this) {
+                    retryAt = System.nanoTime() + RECONNECT_DELAY_NANOS;
+                }
+                return null;
+            }
+        }
+
+        private synchronized void close() {
+            closed = true;
+            if (connection != null) {
+                // closes a connection still being made once it is
+                connection.thenAccept(client -> {
+                    if (client != null) {
+                        close(client);
+                    }
+                });
+            }
+        }
+
+        private void close(BinaryClient client) {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+    }
+
+    /**
+     * The suggestions of the cluster for a request.
+     */
+    public static final class Result {
+
+        private final List<Word> words;
+        private final List<DigitRange> missing;
+
+        private Result(List<Word> words, List<DigitRange> missing) {
+            this.words = Collections.unmodifiableList(words);
+            this.missing = Collections.unmodifiableList(missing);
+        }
+
+        /**
+         * @return the suggestions, in descending order of frequency
+         */
+        public List<Word> getWords() {
+            return words;
+        }
+
+        /**
+         * @return the ranges of the partitions left out of the suggestions
+         */
+        public List<DigitRange> getMissingRanges() {
+            return missing;
+        }
+
+        /**
+         * @return true if the words of some partitions are left out of the suggestions
+         */
+        public boolean isPartial() {
+            return !missing.isEmpty();
+        }
+
+    }
+
+}
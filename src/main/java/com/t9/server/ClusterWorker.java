@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.server;
+
+import com.t9.engine.CharTrie;
+import com.t9.engine.DictionaryImage;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+
+/**
+ * A worker process of a {@link ClusterCoordinator}: serves the words of a range of T9 codes of a dictionary
+ * over the {@link BinaryProtocol}. The dictionary is streamed, and only the words in the range are put in memory.
+ * <p>
+ * usage: ClusterWorker [-host 127.0.0.1] [-port 9090] [-threads number of processors] [-queue 1024]
+ * [-dictionary binary dictionary, the bundled one by default] [-from first code, empty by default]
+ * [-to code after the range, none by default]
+ *
+ * @author ahmad
+ */
+public final class ClusterWorker {
+
+    private ClusterWorker() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = "127.0.0.1", dictionaryFile = null, from = "", to = null;
+        int port = 9090, threads = Runtime.getRuntime().availableProcessors(), queue = 1024;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-host":
+                    host = args[i + 1];
+                    break;
+                case "-port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-queue":
+                    queue = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-dictionary":
+                    dictionaryFile = args[i + 1];
+                    break;
+                case "-from":
+                    from = args[i + 1];
+                    break;
+                case "-to":
+                    to = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        DigitRange range = new DigitRange(from, to);
+        CharTrie trie;
+        if (dictionaryFile == null) {
+            trie = DictionaryImage.load(DictionaryImage.DICTIONARY, range::containsWord);
+        } else {
+            trie = new CharTrie();
+            trie.importBinary(Paths.get(dictionaryFile), range::containsWord);
+        }
+        BinarySuggestionServer server = new BinarySuggestionServer(trie, new InetSocketAddress(host, port), threads,
+                queue);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(5), "t9-worker-shutdown"));
+        server.start();
+        System.out.println("Serving " + range + " on " + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort());
+    }
+
+}
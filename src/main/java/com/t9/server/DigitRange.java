@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.server;
+
+import com.t9.engine.CharTrie;
+import com.t9.engine.Word;
+import com.t9.engine.WordSuggester;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A range of T9 codes, from a digit string inclusive to another exclusive, in lexicographic order: the codes
+ * of the words of a partition of a {@link ClusterCoordinator}. A range from the empty string also has the words
+ * that have no code, i.e. that have characters other than a..z.
+ *
+ * @author ahmad
+ */
+public final class DigitRange {
+
+    private static final Pattern BOUND = Pattern.compile("[2-9]*");
+    /**
+     * the length of the bounds chosen by {@link #split(CharTrie, int)}
+     */
+    private static final int SPLIT_DIGITS = 3;
+
+    private final String from;
+    private final String to;
+
+    /**
+     * @param from the first code of the range: digits 2..9, or empty for the first range
+     * @param to   the code right after the range: digits 2..9, or null for the last range
+     */
+    public DigitRange(String from, String to) {
+        if (!BOUND.matcher(from).matches() || to != null && (to.isEmpty() || !BOUND.matcher(to).matches())) {
+            throw new IllegalArgumentException("bounds must be digits 2..9");
+        }
+        if (to != null && from.compareTo(to) >= 0) {
+            throw new IllegalArgumentException("from must be less than to.");
+        }
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Splits the codes of the words of the specified CharTrie into ranges of about the same number of words.
+     * The bounds are prefixes of a few digits, so fewer ranges are returned if the words are too concentrated.
+     *
+     * @param trie   the dictionary
+     * @param ranges the number of ranges
+     * @return contiguous ranges covering all codes, in order
+     */
+    public static List<DigitRange> split(CharTrie trie, int ranges) {
+        List<String> codes = trie.entries()
+                .map(Word::getValue)
+                .map(WordSuggester::toDigits)
+                .filter(Objects::nonNull)
+                .sorted()
+                .collect(Collectors.toList());
+        List<DigitRange> result = new ArrayList<>(ranges);
+        String from = "";
+        for (int i = 1; i < ranges && !codes.isEmpty(); i++) {
+            String code = codes.get((int) ((long) codes.size() * i / ranges));
+            String bound = code.substring(0, Math.min(code.length(), SPLIT_DIGITS));
+            if (bound.compareTo(from) > 0) {
+                result.add(new DigitRange(from, bound));
+                from = bound;
+            }
+        }
+        result.add(new DigitRange(from, null));
+        return result;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the code right after the range, or null if it is the last range
+     */
+    public String getTo() {
+        return to;
+    }
+
+    /**
+     * @param code a T9 code
+     * @return true if the specified code is in this range
+     */
+    public boolean contains(String code) {
+        return code.compareTo(from) >= 0 && (to == null || code.compareTo(to) < 0);
+    }
+
+    /**
+     * @param word a word
+     * @return true if the words of this range include the specified word
+     */
+    public boolean containsWord(String word) {
+        String code = WordSuggester.toDigits(word);
+        return code == null ? from.isEmpty() : contains(code);
+    }
+
+    /**
+     * @param prefix digits 2..9
+     * @return true if some codes starting with the specified prefix are in this range
+     */
+    public boolean overlaps(String prefix) {
+        // the codes starting with the prefix are those from the prefix up to the prefix followed by 9s
+        return (prefix.compareTo(from) >= 0 || from.startsWith(prefix)) && (to == null || prefix.compareTo(to) < 0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        DigitRange that = (DigitRange) o;
+        return from.equals(that.from) && Objects.equals(to, that.to);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * from.hashCode() + Objects.hashCode(to);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + from + ", " + (to == null ? "" : to) + ")";
+    }
+
+}
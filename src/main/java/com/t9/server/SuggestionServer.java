@@ -0,0 +1,466 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.t9.engine.CharTrie;
+import com.t9.engine.DictionaryImage;
+import com.t9.engine.EngineMetrics;
+import com.t9.engine.JournaledDictionary;
+import com.t9.engine.Word;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless HTTP service of a CharTrie, on the JDK's built-in HTTP server.
+ * <pre>
+ * GET  /suggest?digits=4355&amp;delta=1&amp;k=10  the first k suggestions for the digits, as JSON
+ * POST /learn                              form parameters word and count (default 1), as JSON
+ * GET  /health                             200 while serving, 503 once stopping
+ * GET  /metrics                            engine and server counters, in the Prometheus text format
+ * </pre>
+ * Requests are handled by a fixed pool of workers behind a bounded queue. When the queue is full, a request is
+ * answered with 503 by the thread accepting connections, without being handled.
+ * <p>
+ * usage: SuggestionServer [-host 127.0.0.1] [-port 8080] [-threads number of processors] [-queue 1024]
+ * [-drain 5 seconds /health reports stopping before the server stops]
+ * [-dictionary binary dictionary file, default the bundled one] [-journal directory of a journaled dictionary,
+ * seeded with the dictionary file on first use] [-binary-port port of a {@link BinarySuggestionServer} of the same
+ * dictionary, default none]
+ *
+ * @author ahmad
+ */
+public final class SuggestionServer {
+
+    private static final int MAX_BODY_SIZE = 4096;
+
+    private static final Logger LOGGER = Logger.getLogger(SuggestionServer.class.getName());
+
+    /**
+     * set on the thread accepting connections while it answers a request that the queue has no room for
+     */
+    private static final ThreadLocal<Boolean> OVERLOADED = new ThreadLocal<>();
+
+    static {
+        // responses are written in several small writes, which Nagle's algorithm would hold back for the delayed
+        // ACK of the client, adding about 40 ms to every response on a kept-alive connection
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final SuggestionService service;
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+    private final long startTime = System.currentTimeMillis();
+    private volatile boolean stopping;
+
+    private final LongAdder suggestRequests = new LongAdder();
+    private final LongAdder learnRequests = new LongAdder();
+    private final LongAdder clientErrors = new LongAdder();
+    private final LongAdder serverErrors = new LongAdder();
+    private final LongAdder rejectedRequests = new LongAdder();
+
+    /**
+     * Creates a server of the specified CharTrie, which learns words by putting them in the CharTrie.
+     *
+     * @param trie          the dictionary to be served
+     * @param address       the address to bind to
+     * @param threads       the number of workers
+     * @param queueCapacity the number of requests that may wait for a worker
+     * @throws IOException if the address cannot be bound
+     */
+    public SuggestionServer(CharTrie trie, InetSocketAddress address, int threads, int queueCapacity)
+            throws IOException {
+        this(trie, null, address, threads, queueCapacity);
+    }
+
+    /**
+     * Creates a server of the specified journaled dictionary, which learns words durably.
+     *
+     * @param dictionary    the dictionary to be served
+     * @param address       the address to bind to
+     * @param threads       the number of workers
+     * @param queueCapacity the number of requests that may wait for a worker
+     * @throws IOException if the address cannot be bound
+     */
+    public SuggestionServer(JournaledDictionary dictionary, InetSocketAddress address, int threads, int queueCapacity)
+            throws IOException {
+        this(dictionary.getTrie(), dictionary, address, threads, queueCapacity);
+    }
+
+    private SuggestionServer(CharTrie trie, JournaledDictionary dictionary, InetSocketAddress address, int threads,
+                             int queueCapacity) throws IOException {
+        service = new SuggestionService(trie, dictionary);
+        AtomicInteger workerCount = new AtomicInteger();
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> new Thread(r, "t9-http-worker-" + workerCount.incrementAndGet()),
+                (exchange, executor) -> {
+                    // the exchange reads the request and calls the handler, which answers 503 on this thread
+                    OVERLOADED.set(Boolean.TRUE);
+                    try {
+                        exchange.run();
+                    } finally {
+                        OVERLOADED.remove();
+                    }
+                });
+        server = HttpServer.create(address, 0);
+        server.setExecutor(workers);
+        server.createContext("/suggest", handler("GET", this::suggest));
+        server.createContext("/learn", handler("POST", this::learn));
+        server.createContext("/health", handler("GET", this::health));
+        server.createContext("/metrics", handler("GET", this::metrics));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to the specified delay for the exchanges in progress, and stops the workers.
+     *
+     * @param delaySeconds the maximum time to wait for the exchanges in progress
+     */
+    public void stop(int delaySeconds) {
+        stop(0, delaySeconds);
+    }
+
+    /**
+     * Reports stopping on /health for the specified drain period, while still serving requests, so that load
+     * balancers polling it stop sending new ones. Then stops as {@link #stop(int)} does.
+     *
+     * @param drainSeconds the time /health reports stopping before the server stops accepting requests
+     * @param delaySeconds the maximum time to wait for the exchanges in progress
+     */
+    public void stop(int drainSeconds, int delaySeconds) {
+        stopping = true;
+        try {
+            TimeUnit.SECONDS.sleep(drainSeconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server.stop(delaySeconds);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the address the server is bound to, whose port is the actual one if port 0 was requested
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private Response suggest(HttpExchange exchange) {
+        suggestRequests.increment();
+        Map<String, String> params = parameters(exchange.getRequestURI().getRawQuery());
+        String digits = params.get("digits");
+        List<Word> words = service.suggest(digits, intParameter(params, "delta", 0), intParameter(params, "k", 10));
+        StringBuilder json = new StringBuilder("{\"digits\":\"").append(digits).append("\",\"suggestions\":[");
+        for (int i = 0; i < words.size(); i++) {
+            Word word = words.get(i);
+            json.append(i > 0 ? "," : "").append("{\"word\":");
+            quote(json, word.getValue()).append(",\"frequency\":").append(word.getFrequency()).append('}');
+        }
+        return Response.json(200, json.append("]}").toString());
+    }
+
+    private Response learn(HttpExchange exchange) throws IOException {
+        learnRequests.increment();
+        Map<String, String> params = parameters(readBody(exchange));
+        String word = params.get("word");
+        int frequency = service.learn(word, intParameter(params, "count", 1));
+        StringBuilder json = new StringBuilder("{\"word\":");
+        quote(json, word).append(",\"frequency\":").append(frequency).append('}');
+        return Response.json(200, json.toString());
+    }
+
+    private Response health(HttpExchange exchange) {
+        return Response.json(stopping ? 503 : 200, "{\"status\":\"" + (stopping ? "STOPPING" : "UP")
+                + "\",\"uptimeSeconds\":" + (System.currentTimeMillis() - startTime) / 1000 + '}');
+    }
+
+    private Response metrics(HttpExchange exchange) {
+        EngineMetrics engine = EngineMetrics.getInstance();
+        StringBuilder text = new StringBuilder();
+        metric(text, "t9_suggest_total", "counter", engine.getSuggestCount());
+        text.append("# TYPE t9_suggest_latency_microseconds summary\n");
+        text.append("t9_suggest_latency_microseconds{quantile=\"0.5\"} ").append(engine.getSuggestLatencyP50()).append('\n');
+        text.append("t9_suggest_latency_microseconds{quantile=\"0.99\"} ").append(engine.getSuggestLatencyP99()).append('\n');
+        text.append("t9_suggest_latency_microseconds{quantile=\"0.999\"} ").append(engine.getSuggestLatencyP999()).append('\n');
+        metric(text, "t9_candidates_produced_total", "counter", engine.getCandidatesProduced());
+        metric(text, "t9_candidates_returned_total", "counter", engine.getCandidatesReturned());
+        metric(text, "t9_nodes_visited_total", "counter", engine.getNodesVisited());
+        metric(text, "t9_tasks_spawned_total", "counter", engine.getTasksSpawned());
+        metric(text, "t9_put_total", "counter", engine.getPutCount());
+        metric(text, "t9_suggest_computations_total", "counter", engine.getCoalescingComputations());
+        metric(text, "t9_suggest_coalesced_total", "counter", engine.getCoalescedSuggestCount());
+        text.append("# TYPE t9_http_requests_total counter\n");
+        text.append("t9_http_requests_total{endpoint=\"suggest\"} ").append(suggestRequests.sum()).append('\n');
+        text.append("t9_http_requests_total{endpoint=\"learn\"} ").append(learnRequests.sum()).append('\n');
+        text.append("# TYPE t9_http_errors_total counter\n");
+        text.append("t9_http_errors_total{class=\"4xx\"} ").append(clientErrors.sum()).append('\n');
+        text.append("t9_http_errors_total{class=\"5xx\"} ").append(serverErrors.sum()).append('\n');
+        metric(text, "t9_http_rejected_total", "counter", rejectedRequests.sum());
+        metric(text, "t9_http_workers_active", "gauge", workers.getActiveCount());
+        metric(text, "t9_http_queue_length", "gauge", workers.getQueue().size());
+        return new Response(200, "text/plain; version=0.0.4; charset=utf-8", text.toString());
+    }
+
+    private static void metric(StringBuilder text, String name, String type, long value) {
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private HttpHandler handler(String method, Endpoint endpoint) {
+        return exchange -> {
+            Response response;
+            try {
+                if (OVERLOADED.get() != null) {
+                    rejectedRequests.increment();
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                    response = error(503, "overloaded");
+                } else if (!exchange.getRequestMethod().equals(method)) {
+                    exchange.getResponseHeaders().set("Allow", method);
+                    response = error(405, "method not allowed");
+                } else {
+                    response = endpoint.handle(exchange);
+                }
+            } catch (IllegalArgumentException e) {
+                response = error(400, e.getMessage());
+            } catch (BodyTooLargeException e) {
+                response = error(413, "request body too large");
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to handle " + exchange.getRequestMethod() + " "
+                        + exchange.getRequestURI(), e);
+                response = error(500, "internal error");
+            }
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", response.contentType);
+                exchange.sendResponseHeaders(response.status, body.length);
+                outputStream.write(body);
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    private Response error(int status, String message) {
+        (status < 500 ? clientErrors : serverErrors).increment();
+        StringBuilder json = new StringBuilder("{\"error\":");
+        return Response.json(status, quote(json, message).append('}').toString());
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            int n;
+            while ((n = inputStream.read(buffer)) > 0) {
+                if (body.size() + n > MAX_BODY_SIZE) {
+                    throw new BodyTooLargeException();
+                }
+                body.write(buffer, 0, n);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param query a URL encoded query string or form, or null
+     * @return the parameters of the specified query, the last value of each name
+     */
+    private static Map<String, String> parameters(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        try {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                            URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        return params;
+    }
+
+    private static int intParameter(Map<String, String> params, String name, int defaultValue) {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer");
+        }
+    }
+
+    private static StringBuilder quote(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                json.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                json.append(String.format("\\u%04x", (int) ch));
+            } else {
+                json.append(ch);
+            }
+        }
+        return json.append('"');
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+
+        Response handle(HttpExchange exchange) throws IOException;
+
+    }
+
+    private static final class Response {
+
+        private final int status;
+        private final String contentType;
+        private final String body;
+
+        private Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        private static Response json(int status, String body) {
+            return new Response(status, "application/json; charset=utf-8", body);
+        }
+
+    }
+
+    private static final class BodyTooLargeException extends IOException {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String host = "127.0.0.1", dictionaryFile = null, journal = null;
+        int port = 8080, binaryPort = -1, threads = Runtime.getRuntime().availableProcessors(), queue = 1024;
+        int drain = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-host":
+                    host = args[i + 1];
+                    break;
+                case "-port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-binary-port":
+                    binaryPort = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-queue":
+                    queue = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-drain":
+                    drain = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-dictionary":
+                    dictionaryFile = args[i + 1];
+                    break;
+                case "-journal":
+                    journal = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        InetSocketAddress binaryAddress = new InetSocketAddress(host, binaryPort);
+        SuggestionServer server;
+        BinarySuggestionServer binaryServer = null;
+        JournaledDictionary dictionary = null;
+        if (journal != null) {
+            dictionary = JournaledDictionary.open(Paths.get(journal),
+                    dictionaryFile == null ? null : Paths.get(dictionaryFile));
+            server = new SuggestionServer(dictionary, address, threads, queue);
+            if (binaryPort >= 0) {
+                binaryServer = new BinarySuggestionServer(dictionary, binaryAddress, threads, queue);
+            }
+        } else {
+            CharTrie trie = dictionaryFile == null ? DictionaryImage.load() : CharTrie.open(Paths.get(dictionaryFile));
+            server = new SuggestionServer(trie, address, threads, queue);
+            if (binaryPort >= 0) {
+                binaryServer = new BinarySuggestionServer(trie, binaryAddress, threads, queue);
+            }
+        }
+        int drainSeconds = drain;
+        JournaledDictionary toClose = dictionary;
+        BinarySuggestionServer toStop = binaryServer;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(drainSeconds, 5);
+            if (toStop != null) {
+                toStop.stop(5);
+            }
+            if (toClose != null) {
+                try {
+                    toClose.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "t9-http-shutdown"));
+        server.start();
+        System.out.println("Serving on http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+        if (binaryServer != null) {
+            binaryServer.start();
+            System.out.println("Serving the binary protocol on " + binaryServer.getAddress().getHostString() + ":"
+                    + binaryServer.getAddress().getPort());
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.server;
+
+import com.t9.engine.CharTrie;
+import com.t9.engine.JournaledDictionary;
+import com.t9.engine.SuggestionCoalescer;
+import com.t9.engine.Word;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The operations of the servers on a dictionary, with the limits on their arguments.
+ * Invalid arguments are rejected with IllegalArgumentExceptions, whose messages are meant for the client.
+ *
+ * @author ahmad
+ */
+final class SuggestionService {
+
+    private static final Pattern DIGITS = Pattern.compile("[2-9]{1,32}");
+    static final int MAX_DELTA = 3;
+    static final int MAX_K = 100;
+    static final int MAX_WORD_LENGTH = 64;
+
+    private final CharTrie trie;
+    private final JournaledDictionary dictionary;
+    private final SuggestionCoalescer coalescer;
+
+    /**
+     * @param trie       the dictionary to be served
+     * @param dictionary the journaled dictionary of the CharTrie, which learns words durably, or null
+     */
+    SuggestionService(CharTrie trie, JournaledDictionary dictionary) {
+        this.trie = trie;
+        this.dictionary = dictionary;
+        coalescer = new SuggestionCoalescer(trie);
+    }
+
+    /**
+     * @return the first k suggestions for the specified digits, shared by identical concurrent requests
+     */
+    List<Word> suggest(String digits, int delta, int k) {
+        checkSuggest(digits, delta, k);
+        return coalescer.suggest(digits, delta, k);
+    }
+
+    /**
+     * @return the frequency of the specified word after learning it
+     */
+    int learn(String word, int count) {
+        checkWord(word, count);
+        int previous = dictionary == null ? trie.put(word, count) : dictionary.learn(word, count);
+        return Math.max(previous, 0) + count;
+    }
+
+    static void checkSuggest(String digits, int delta, int k) {
+        if (digits == null || !DIGITS.matcher(digits).matches()) {
+            throw new IllegalArgumentException("digits must be 1 to 32 digits 2..9");
+        }
+        checkRange("delta", delta, 0, MAX_DELTA);
+        checkRange("k", k, 1, MAX_K);
+    }
+
+    static void checkWord(String word, int count) {
+        if (word == null || word.isEmpty() || word.length() > MAX_WORD_LENGTH) {
+            throw new IllegalArgumentException("word must be 1 to " + MAX_WORD_LENGTH + " characters");
+        }
+        checkRange("count", count, 1, Integer.MAX_VALUE);
+    }
+
+    static void checkRange(String name, int value, int min, int max) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException(name + " must be an integer in [" + min + ", " + max + "]");
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package com.t9.util.serialization;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author ahmad
@@ -31,6 +32,26 @@ public interface BinaryObjectSerializer<T> extends ObjectSerializer<T, byte[]> {
 
     T read(InputStream inputStream) throws IOException;
 
+    /**
+     * Writes the object to the specified heap or direct buffer, starting at its position,
+     * and advances the position past the written bytes.
+     *
+     * @param object the object to be written
+     * @param buffer the destination buffer
+     * @throws IOException
+     */
+    void write(T object, ByteBuffer buffer) throws IOException;
+
+    /**
+     * Reads an object from the specified heap or direct buffer, starting at its position,
+     * and advances the position past the read bytes.
+     *
+     * @param buffer the source buffer
+     * @return the object read
+     * @throws IOException
+     */
+    T read(ByteBuffer buffer) throws IOException;
+
     @Override
     default Class<byte[]> getOutputType() {
         return byte[].class;
@@ -17,6 +17,8 @@
 package com.t9.util.serialization;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.ByteBufferOutput;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.pool.KryoFactory;
@@ -26,6 +28,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * @author ahmad
@@ -34,9 +37,26 @@ public final class KryoSerializer<T> implements BinaryObjectSerializer<T> {
 
     private static final KryoFactory DEFAULT_KRYO_FACTORY = Kryo::new;
 
+    private static final int BUFFER_SIZE = 4096;
+    private static final byte[] EMPTY = new byte[0];
+    private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
+
     private final KryoPool kryoPool;
     private final Class<T> inputType;
 
+    /**
+     * Outputs and Inputs are reused along with their buffers, and are detached from their targets when released.
+     */
+    private final SoftReferencePool<Output> outputPool = new SoftReferencePool<>(() -> new Output(BUFFER_SIZE, -1));
+    /**
+     * Inputs reading from streams, with buffers of their own; those reading from byte arrays are kept apart,
+     * since their buffers are the callers' arrays
+     */
+    private final SoftReferencePool<Input> inputPool = new SoftReferencePool<>(() -> new Input(BUFFER_SIZE));
+    private final SoftReferencePool<Input> arrayInputPool = new SoftReferencePool<>(Input::new);
+    private final SoftReferencePool<ByteBufferOutput> byteBufferOutputPool = new SoftReferencePool<>(ByteBufferOutput::new);
+    private final SoftReferencePool<ByteBufferInput> byteBufferInputPool = new SoftReferencePool<>(ByteBufferInput::new);
+
     public KryoSerializer(Class<T> inputType) {
         this(DEFAULT_KRYO_FACTORY, inputType);
     }
@@ -48,8 +68,13 @@ public final class KryoSerializer<T> implements BinaryObjectSerializer<T> {
 
     @Override
     public byte[] serialize(T object) throws IOException {
-        try (ByteArrayOutputStream outputStream = write(object)) {
-            return outputStream.toByteArray();
+        final Output output = outputPool.borrow();
+        try {
+            writeMessage(output, object);
+            return output.toBytes();
+        } finally {
+            output.clear();
+            outputPool.release(output);
         }
     }
 
@@ -62,19 +87,68 @@ public final class KryoSerializer<T> implements BinaryObjectSerializer<T> {
 
     @Override
     public void write(T object, OutputStream outputStream) throws IOException {
-        Output output = new Output(outputStream);
-        writeMessage(output, object);
-        output.flush();
+        final Output output = outputPool.borrow();
+        try {
+            output.setOutputStream(outputStream);
+            writeMessage(output, object);
+            output.flush();
+        } finally {
+            output.setOutputStream(null);
+            outputPool.release(output);
+        }
+    }
+
+    @Override
+    public void write(T object, ByteBuffer buffer) throws IOException {
+        final ByteBufferOutput output = byteBufferOutputPool.borrow();
+        try {
+            // the buffer must not be replaced by a larger one, since the caller would not see it
+            output.setBuffer(buffer, buffer.capacity());
+            writeMessage(output, object);
+            buffer.position(output.position());
+        } finally {
+            // release() would clear the caller's buffer, and free it if it is direct
+            output.setBuffer(EMPTY_BUFFER, 0);
+            byteBufferOutputPool.release(output);
+        }
     }
 
     @Override
     public T deserialize(byte[] bytes) throws IOException {
-        return readMessage(new Input(bytes));
+        final Input input = arrayInputPool.borrow();
+        try {
+            input.setBuffer(bytes);
+            return readMessage(input);
+        } finally {
+            input.setBuffer(EMPTY);
+            arrayInputPool.release(input);
+        }
     }
 
     @Override
     public T read(InputStream inputStream) throws IOException {
-        return readMessage(new Input(inputStream));
+        final Input input = inputPool.borrow();
+        try {
+            input.setInputStream(inputStream);
+            return readMessage(input);
+        } finally {
+            input.setInputStream(null);
+            inputPool.release(input);
+        }
+    }
+
+    @Override
+    public T read(ByteBuffer buffer) throws IOException {
+        final ByteBufferInput input = byteBufferInputPool.borrow();
+        try {
+            input.setBuffer(buffer);
+            T object = readMessage(input);
+            buffer.position(input.position());
+            return object;
+        } finally {
+            input.setBuffer(EMPTY_BUFFER);
+            byteBufferInputPool.release(input);
+        }
     }
 
     @Override
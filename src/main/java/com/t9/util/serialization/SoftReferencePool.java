@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.util.serialization;
+
+import java.lang.ref.SoftReference;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * A pool of reusable objects, held by soft references so that idle ones can be reclaimed under memory pressure,
+ * like the soft-referenced KryoPool.
+ *
+ * @author ahmad
+ */
+final class SoftReferencePool<T> {
+
+    private final Queue<SoftReference<T>> queue = new ConcurrentLinkedQueue<>();
+    private final Supplier<T> factory;
+
+    SoftReferencePool(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return a pooled object, or a newly created one if the pool is empty
+     */
+    T borrow() {
+        SoftReference<T> ref;
+        while ((ref = queue.poll()) != null) {
+            T object = ref.get();
+            if (object != null) {
+                return object;
+            }
+        }
+        return factory.get();
+    }
+
+    /**
+     * @param object the object to be returned to the pool
+     */
+    void release(T object) {
+        queue.offer(new SoftReference<>(object));
+    }
+
+}
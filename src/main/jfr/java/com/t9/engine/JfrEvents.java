@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016 Ahmad Mozafarnia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.t9.engine;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The Flight Recorder events of {@link EngineEvents}. Whether an event is enabled is checked on its EventType,
+ * so no event is allocated while it is not recorded.
+ *
+ * @author ahmad
+ */
+final class JfrEvents implements EngineEvents.Sink {
+
+    private static final EventType SUGGEST = EventType.getEventType(SuggestEvent.class);
+    private static final EventType GENERATION = EventType.getEventType(GenerationEvent.class);
+    private static final EventType DICTIONARYIO = EventType.getEventType(DictionaryIOEvent.class);
+    private static final EventType BLOCK = EventType.getEventType(BlockEvent.class);
+    private static final EventType JOURNAL = EventType.getEventType(JournalEvent.class);
+
+    @Override
+    public Object beginSuggest() {
+        if (!SUGGEST.isEnabled()) {
+            return null;
+        }
+        SuggestEvent event = new SuggestEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endSuggest(Object begun, int inputLength, int delta, int candidates) {
+        SuggestEvent event = (SuggestEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.inputLength = inputLength;
+            event.delta = delta;
+            event.candidates = candidates;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginGeneration() {
+        if (!GENERATION.isEnabled()) {
+            return null;
+        }
+        GenerationEvent event = new GenerationEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endGeneration(Object begun, int inputLength, long visited, long produced, long spawned) {
+        GenerationEvent event = (GenerationEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.inputLength = inputLength;
+            event.nodesVisited = visited;
+            event.candidatesProduced = produced;
+            event.tasksSpawned = spawned;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginDictionaryIO() {
+        if (!DICTIONARYIO.isEnabled()) {
+            return null;
+        }
+        DictionaryIOEvent event = new DictionaryIOEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endDictionaryIO(Object begun, String operation, String path, long bytes, long words) {
+        DictionaryIOEvent event = (DictionaryIOEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.path = path;
+            event.bytes = bytes;
+            event.words = words;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginBlock() {
+        if (!BLOCK.isEnabled()) {
+            return null;
+        }
+        BlockEvent event = new BlockEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endBlock(Object begun, String operation, char key, long bytes, long words) {
+        BlockEvent event = (BlockEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.key = key;
+            event.bytes = bytes;
+            event.words = words;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginJournal() {
+        if (!JOURNAL.isEnabled()) {
+            return null;
+        }
+        JournalEvent event = new JournalEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endJournal(Object begun, String operation, long generation, long bytes) {
+        JournalEvent event = (JournalEvent) begun;
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.generation = generation;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    @Name("com.t9.Suggest")
+    @Label("Suggest")
+    @Category("T9")
+    static final class SuggestEvent extends Event {
+
+        @Label("Input Length")
+        int inputLength;
+
+        @Label("Delta")
+        int delta;
+
+        @Label("Candidates")
+        int candidates;
+
+    }
+
+    @Name("com.t9.Generation")
+    @Label("Word Generation")
+    @Category("T9")
+    static final class GenerationEvent extends Event {
+
+        @Label("Input Length")
+        int inputLength;
+
+        @Label("Nodes Visited")
+        long nodesVisited;
+
+        @Label("Candidates Produced")
+        long candidatesProduced;
+
+        @Label("Tasks Spawned")
+        long tasksSpawned;
+
+    }
+
+    @Name("com.t9.DictionaryIO")
+    @Label("Dictionary Import/Export")
+    @Category("T9")
+    static final class DictionaryIOEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Words")
+        long words;
+
+    }
+
+    @Name("com.t9.Block")
+    @Label("Dictionary Block")
+    @Category("T9")
+    static final class BlockEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("First Character")
+        char key;
+
+        @Label("Compressed Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Words")
+        long words;
+
+    }
+
+    @Name("com.t9.Journal")
+    @Label("Journal")
+    @Category("T9")
+    static final class JournalEvent extends Event {
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Generation")
+        long generation;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytes;
+
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.t9;
+
+import com.t9.engine.CharTrie;
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures text dictionary import time against the number of import workers.
+ * <p>
+ * usage: ImportBenchmark [copies of the bundled dictionary, default 20]
+ *
+ * @author ahmad
+ */
+public final class ImportBenchmark {
+
+    private static final int RUNS = 3;
+
+    public static void main(String[] args) throws Exception {
+        int copies = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+        Path part = Files.createTempFile("t9-dictionary", ".txt");
+        Path src = Files.createTempFile("t9-dictionary", ".txt");
+        try {
+            exportBundledDictionary(part);
+            byte[] bytes = Files.readAllBytes(part);
+            try (OutputStream out = Files.newOutputStream(src, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (int i = 0; i < copies; i++) {
+                    out.write(bytes);
+                }
+            }
+            double mb = Files.size(src) / (1024.0 * 1024.0);
+            System.out.printf("dictionary size = %,.1f MB\n", mb);
+
+            long sequential = best(() -> {
+                CharTrie t = new CharTrie();
+                try (BufferedReader reader = Files.newBufferedReader(src, StandardCharsets.UTF_8)) {
+                    String word;
+                    while ((word = reader.readLine()) != null) {
+                        t.put(word);
+                    }
+                }
+            });
+            System.out.printf("line by line: %,d ms (%,.1f MB/s)\n", sequential / 1000000, mb * 1e9 / sequential);
+
+            for (int p = 1; p <= Runtime.getRuntime().availableProcessors(); p *= 2) {
+                ForkJoinPool pool = new ForkJoinPool(p);
+                long time = best(() -> new CharTrie().importDictionary(src, pool));
+                pool.shutdown();
+                System.out.printf("mapped, %d workers: %,d ms (%,.1f MB/s, speedup = %.2fx)\n",
+                        p, time / 1000000, mb * 1e9 / time, (double) sequential / time);
+            }
+        } finally {
+            Files.deleteIfExists(part);
+            Files.deleteIfExists(src);
+        }
+    }
+
+    private static void exportBundledDictionary(Path dest) throws Exception {
+        CharTrie trie = new CharTrie();
+        trie.importBinary(Paths.get(ImportBenchmark.class.getResource("/dictionary.bin").toURI()));
+        trie.exportDictionary(dest);
+    }
+
+    private static long best(Task task) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long t = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - t);
+            System.gc();
+        }
+        return best;
+    }
+
+    private interface Task {
+
+        void run() throws Exception;
+
+    }
+
+}
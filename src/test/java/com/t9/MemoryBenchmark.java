@@ -0,0 +1,100 @@
+package com.t9;
+
+import com.t9.engine.CharTrie;
+import com.t9.engine.DictionaryImage;
+import com.t9.engine.MemoryStats;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Reports the memory footprint of CharTries holding the bundled dictionary, and synthetic dictionaries of
+ * random words: the estimate of {@link CharTrie#memoryStats()}, and the heap growth measured after GC.
+ * <p>
+ * usage: MemoryBenchmark [synthetic dictionary sizes, default 10000 100000 1000000 10000000]
+ * <p>
+ * 10M words need a heap of about 12 GB (-Xmx12g).
+ *
+ * @author ahmad
+ */
+public final class MemoryBenchmark {
+
+    /**
+     * relative frequencies of the letters in English text, a..z
+     */
+    private static final int[] LETTER_WEIGHTS = {
+            82, 15, 28, 43, 127, 22, 20, 61, 70, 2, 8, 40, 24, 67, 75, 19, 1, 60, 63, 91, 28, 10, 24, 2, 20, 1
+    };
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = args.length > 0 ? args : new String[]{"10000", "100000", "1000000", "10000000"};
+        System.out.printf("%-12s %12s %12s %12s %14s %14s %12s %12s %12s\n", "dictionary", "words", "nodes",
+                "edges", "estimated", "measured", "node", "child map", "counters");
+        report("bundled", () -> {
+            try {
+                return DictionaryImage.load();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        for (String size : sizes) {
+            int words = Integer.parseInt(size);
+            report(String.format("%,d", words), () -> synthetic(words, new Random(words)));
+        }
+    }
+
+    private static CharTrie synthetic(int words, Random random) {
+        int total = 0;
+        for (int weight : LETTER_WEIGHTS) {
+            total += weight;
+        }
+        CharTrie trie = new CharTrie();
+        char[] word = new char[12];
+        for (int i = 0; i < words; i++) {
+            int length = 3 + random.nextInt(word.length - 2);
+            for (int j = 0; j < length; j++) {
+                int r = random.nextInt(total), letter = 0;
+                while ((r -= LETTER_WEIGHTS[letter]) >= 0) {
+                    letter++;
+                }
+                word[j] = (char) ('a' + letter);
+            }
+            trie.put(new String(word, 0, length), 1 + random.nextInt(10));
+        }
+        return trie;
+    }
+
+    private static void report(String name, Supplier<CharTrie> loader) {
+        long before = usedMemory();
+        CharTrie trie = loader.get();
+        long measured = usedMemory() - before;
+        MemoryStats stats = trie.memoryStats();
+        long chars = trie.entries().mapToLong(w -> w.getValue().length()).sum();
+        long words = stats.getTerminals();
+        System.out.printf("%-12s %,12d %,12d %,12d %,14d %,14d %12s %12s %12s\n", name, words, stats.getNodes(),
+                stats.getEdges(), stats.getRetainedBytes(), measured, "", "", "");
+        System.out.printf("%-12s %12s %12s %12s %14s %14s %,12d %,12d %,12d bytes\n", "", "", "", "", "", "",
+                stats.getNodeBytes(), stats.getChildMapBytes(), stats.getCounterBytes());
+        System.out.printf("%-12s estimated %.1f bytes/word, %.1f bytes/char; measured %.1f bytes/word, %.1f bytes/char\n",
+                "", (double) stats.getRetainedBytes() / words, (double) stats.getRetainedBytes() / chars,
+                (double) measured / words, (double) measured / chars);
+    }
+
+    /**
+     * @return the used heap, after collecting garbage until it stops shrinking
+     */
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long current = runtime.totalMemory() - runtime.freeMemory();
+            if (current >= used) {
+                break;
+            }
+            used = current;
+        }
+        return used;
+    }
+
+}
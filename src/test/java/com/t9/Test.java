@@ -1,9 +1,10 @@
 package com.t9;
 
 import com.t9.engine.CharTrie;
+import com.t9.engine.DictionaryImage;
+import com.t9.engine.SuggestionIterator;
 import com.t9.engine.WordSuggester;
 
-import java.nio.file.Paths;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -12,10 +13,8 @@ import java.util.concurrent.ThreadLocalRandom;
 public final class Test {
 
     public static void main(String[] args) throws Exception {
-        CharTrie trie = new CharTrie();
-
         System.out.print("Importing dictionary... ");
-        trie.importBinary(Paths.get(Test.class.getResource("/dictionary.bin").toURI()));
+        CharTrie trie = DictionaryImage.load();
         System.out.println("done.");
 
         WordSuggester.suggest(trie, "5683", 3).limit(20).forEach(System.out::println);
@@ -25,6 +24,10 @@ public final class Test {
         WordSuggester.suggest(trie, "73776674245489", 3).limit(20).forEach(System.out::println);
         WordSuggester.suggest(trie, "46837628466254928466", 3).limit(20).forEach(System.out::println);
 
+        SuggestionIterator suggestions = WordSuggester.suggestions(trie, "5683", 3);
+        System.out.println("page 1: " + suggestions.next(10));
+        System.out.println("page 2: " + WordSuggester.resume(trie, suggestions.cursor()).next(10));
+
         ThreadLocalRandom random = ThreadLocalRandom.current();
         long totalTime = 0;
         int it = 10000, letters = 20;
@@ -0,0 +1,164 @@
+package com.t9.engine;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the bytes allocated per suggest, frequency and put call on the bundled dictionary, and fails
+ * (with exit status 1) if any of them exceeds its budget. Suggest is also broken down into its phases:
+ * generation of the candidates, collection of the distinct words and ranking.
+ * <p>
+ * Allocations are read from {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long[])} and summed over
+ * all live threads, since words are generated by the workers of the common pool. Each operation is warmed up
+ * before it is measured, so the JIT has had the chance to eliminate the allocations it can.
+ * <p>
+ * usage: AllocationBudget [-suggest 300000] [-frequency 0] [-put 0] [-delta 1] [-iterations 20000]
+ * (budgets in bytes per call)
+ *
+ * @author ahmad
+ */
+public final class AllocationBudget {
+
+    private static final int INPUTS = 1024;
+    private static final int MAX_INPUT_LENGTH = 8;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        long suggestBudget = 300000, frequencyBudget = 0, putBudget = 0;
+        int delta = 1, iterations = 20000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-suggest":
+                    suggestBudget = Long.parseLong(args[i + 1]);
+                    break;
+                case "-frequency":
+                    frequencyBudget = Long.parseLong(args[i + 1]);
+                    break;
+                case "-put":
+                    putBudget = Long.parseLong(args[i + 1]);
+                    break;
+                case "-delta":
+                    delta = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-iterations":
+                    iterations = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.err.println("Thread allocated memory is not supported by this JVM");
+            System.exit(2);
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.print("Loading dictionary... ");
+        CharTrie trie = DictionaryImage.load();
+        System.out.println("done.");
+
+        List<String> words = new ArrayList<>(INPUTS);
+        List<String> inputs = new ArrayList<>(INPUTS);
+        sample(trie, new Random(42), words, inputs);
+        int d = delta;
+
+        System.out.printf("%-12s %14s %14s\n", "operation", "bytes/call", "budget");
+        boolean passed = check("suggest", suggestBudget, iterations, inputs,
+                input -> WordSuggester.suggest(trie, input, d).collect(Collectors.toList()));
+        passed &= check("frequency", frequencyBudget, iterations, words, trie::frequency);
+        // the words are already in the dictionary, so putting them only updates the frequencies
+        passed &= check("put", putBudget, iterations, words, trie::put);
+
+        System.out.println("\nsuggest phases:");
+        report("generation", iterations, inputs, input -> generate(trie, input, d));
+        List<List<Map<String, Integer>>> generated = new ArrayList<>(inputs.size());
+        for (String input : inputs) {
+            generated.add(generate(trie, input, d));
+        }
+        report("collection", iterations, generated, AllocationBudget::collect);
+        List<List<Word>> collected = generated.stream().map(AllocationBudget::collect).collect(Collectors.toList());
+        report("ranking", iterations, collected, list -> new ArrayList<>(list).sort((a, b) -> b.compareTo(a)));
+
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Picks words of the dictionary that can be typed on the keypad, and their T9 codes, cut to at most
+     * {@value #MAX_INPUT_LENGTH} digits.
+     */
+    private static void sample(CharTrie trie, Random random, List<String> words, List<String> inputs) {
+        List<String> typeable = trie.entries()
+                .map(Word::getValue)
+                .filter(word -> WordSuggester.toDigits(word) != null)
+                .collect(Collectors.toList());
+        for (int i = 0; i < INPUTS; i++) {
+            String word = typeable.get(random.nextInt(typeable.size()));
+            String code = WordSuggester.toDigits(word);
+            words.add(word);
+            inputs.add(code.substring(0, Math.min(code.length(), MAX_INPUT_LENGTH)));
+        }
+    }
+
+    private static List<Map<String, Integer>> generate(CharTrie trie, String input, int delta) {
+        List<Map<String, Integer>> words = new ArrayList<>();
+        WordSuggester.suggest(trie, input, delta, words);
+        return words;
+    }
+
+    private static List<Word> collect(List<Map<String, Integer>> words) {
+        return words.stream()
+                .map(Map::entrySet)
+                .flatMap(Collection::stream)
+                .map(Word::from)
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    private static <T> boolean check(String name, long budget, int iterations, List<T> arguments,
+                                     Consumer<T> operation) {
+        long bytes = measure(iterations, arguments, operation);
+        boolean passed = bytes <= budget;
+        System.out.printf("%-12s %,14d %,14d %s\n", name, bytes, budget, passed ? "" : "FAILED");
+        return passed;
+    }
+
+    private static <T> void report(String name, int iterations, List<T> arguments, Consumer<T> operation) {
+        System.out.printf("%-12s %,14d\n", name, measure(iterations, arguments, operation));
+    }
+
+    /**
+     * @return the bytes allocated per call of the specified operation, after a warmup of as many calls
+     */
+    private static <T> long measure(int iterations, List<T> arguments, Consumer<T> operation) {
+        for (int i = 0; i < iterations; i++) {
+            operation.accept(arguments.get(i % arguments.size()));
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            operation.accept(arguments.get(i % arguments.size()));
+        }
+        return (allocatedBytes() - before) / iterations;
+    }
+
+    /**
+     * @return the bytes allocated so far by the live threads
+     */
+    private static long allocatedBytes() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,202 @@
+package com.t9.engine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Checks the paths of a {@link SuggestionCoalescer} other than the plain sharing of a result, with computations
+ * that are held in flight until they are released:
+ * <ol>
+ * <li>a failed computation fails all the calls sharing it, and the next call computes again,</li>
+ * <li>a cancelled future of a call leaves the computation, and the other calls, alone,</li>
+ * <li>an interrupted call stops waiting with a CancellationException, and keeps its interrupt status,</li>
+ * <li>a computation the executor rejects fails its calls, and is not left in flight,</li>
+ * <li>a call made after a put does not share a computation started before it.</li>
+ * </ol>
+ * Exits with status 1 if a check fails.
+ *
+ * @author ahmad
+ */
+public final class CoalescingCheck {
+
+    private static final Word WORD = new Word("hello", 1);
+
+    private final CharTrie trie = new CharTrie();
+    private final AtomicInteger computations = new AtomicInteger();
+    private volatile CountDownLatch started;
+    private volatile CountDownLatch release;
+    private volatile RuntimeException failure;
+    private final SuggestionCoalescer coalescer = new SuggestionCoalescer(trie, this::compute);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private boolean passed = true;
+
+    public static void main(String[] args) throws Exception {
+        CoalescingCheck check = new CoalescingCheck();
+        try {
+            check.failure();
+            check.cancellation();
+            check.interruption();
+            check.rejection();
+            check.putsInFlight();
+        } finally {
+            check.executor.shutdownNow();
+        }
+        System.out.println(check.passed ? "PASSED" : "FAILED");
+        if (!check.passed) {
+            System.exit(1);
+        }
+    }
+
+    private Stream<Word> compute(String input, int delta) {
+        computations.incrementAndGet();
+        started.countDown();
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        RuntimeException e = failure;
+        if (e != null) {
+            throw e;
+        }
+        return Stream.of(WORD);
+    }
+
+    /**
+     * Holds the next computation until {@link #release} is counted down.
+     */
+    private void hold() {
+        computations.set(0);
+        started = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        failure = null;
+    }
+
+    private void failure() throws Exception {
+        hold();
+        failure = new IllegalStateException("failed");
+        CompletableFuture<List<Word>> leader = coalescer.suggestAsync("43", 0, 5, executor);
+        started.await();
+        AtomicReference<Throwable> joined = new AtomicReference<>();
+        Thread joiner = new Thread(() -> {
+            try {
+                coalescer.suggest("43", 0, 5);
+            } catch (RuntimeException e) {
+                joined.set(e);
+            }
+        });
+        long coalesced = EngineMetrics.getInstance().getCoalescedSuggestCount();
+        joiner.start();
+        awaitCoalesced(coalesced + 1);
+        release.countDown();
+        joiner.join();
+        Throwable leaderFailure = cause(leader);
+        check("failure fails the leader", leaderFailure == failure);
+        check("failure fails the joiner", joined.get() == failure);
+        check("failure leaves nothing in flight", coalescer.getInFlight() == 0);
+
+        failure = null;
+        check("next call computes again", coalescer.suggest("43", 0, 5).equals(Collections.singletonList(WORD))
+                && computations.get() == 2);
+    }
+
+    private void cancellation() throws Exception {
+        hold();
+        CompletableFuture<List<Word>> leader = coalescer.suggestAsync("43", 0, 5, executor);
+        started.await();
+        CompletableFuture<List<Word>> joiner = coalescer.suggestAsync("43", 0, 5, executor);
+        CompletableFuture<List<Word>> other = coalescer.suggestAsync("43", 0, 5, executor);
+        joiner.cancel(true);
+        release.countDown();
+        check("cancelled call is cancelled", joiner.isCancelled());
+        check("leader completes after a cancellation", leader.get(5, TimeUnit.SECONDS).contains(WORD));
+        check("other joiner completes after a cancellation", other.get(5, TimeUnit.SECONDS).contains(WORD));
+        check("cancellation computes once", computations.get() == 1);
+    }
+
+    private void interruption() throws Exception {
+        hold();
+        CompletableFuture<List<Word>> leader = coalescer.suggestAsync("43", 0, 5, executor);
+        started.await();
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+        AtomicReference<Boolean> interrupted = new AtomicReference<>();
+        Thread joiner = new Thread(() -> {
+            try {
+                coalescer.suggest("43", 0, 5);
+            } catch (CancellationException e) {
+                thrown.set(e);
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        });
+        long coalesced = EngineMetrics.getInstance().getCoalescedSuggestCount();
+        joiner.start();
+        awaitCoalesced(coalesced + 1);
+        joiner.interrupt();
+        joiner.join();
+        release.countDown();
+        check("interrupted call is cancelled", thrown.get() != null && Boolean.TRUE.equals(interrupted.get()));
+        check("leader completes after an interruption", leader.get(5, TimeUnit.SECONDS).contains(WORD));
+    }
+
+    private void rejection() throws Exception {
+        hold();
+        CompletableFuture<List<Word>> rejected = coalescer.suggestAsync("43", 0, 5, command -> {
+            throw new RejectedExecutionException();
+        });
+        check("rejected computation fails its call", cause(rejected) instanceof RejectedExecutionException);
+        check("rejected computation is not in flight", coalescer.getInFlight() == 0);
+    }
+
+    private void putsInFlight() throws Exception {
+        hold();
+        CompletableFuture<List<Word>> before = coalescer.suggestAsync("43", 0, 5, executor);
+        started.await();
+        trie.put("he");
+        CompletableFuture<List<Word>> after = coalescer.suggestAsync("43", 0, 5, executor);
+        check("call after a put does not join", coalescer.getInFlight() == 2);
+        release.countDown();
+        before.get(5, TimeUnit.SECONDS);
+        after.get(5, TimeUnit.SECONDS);
+        check("call after a put computes again", computations.get() == 2);
+    }
+
+    /**
+     * Waits until the coalesced count of the metrics reaches the specified count.
+     */
+    private static void awaitCoalesced(long target) throws InterruptedException {
+        // the count is recorded right before waiting, so this may return slightly early
+        while (EngineMetrics.getInstance().getCoalescedSuggestCount() < target) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(20);
+    }
+
+    private static Throwable cause(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (TimeoutException e) {
+            return e;
+        }
+    }
+
+    private void check(String name, boolean result) {
+        System.out.printf("%-48s %s\n", name, result ? "ok" : "FAILED");
+        passed &= result;
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.t9.engine;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.t9.util.serialization.KryoSerializer;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares size and decoding speed of the binary dictionary formats on the bundled dictionary:
+ * the gzipped word list of older versions, and front-coded batches with and without gzip.
+ *
+ * @author ahmad
+ */
+public final class FormatBenchmark {
+
+    private static final int RUNS = 10;
+
+    @SuppressWarnings("unchecked")
+    private static final KryoSerializer<List<Word>> WORD_LIST_SERIALIZER = new KryoSerializer<>(() -> {
+        Kryo kryo = new Kryo();
+        kryo.register(Word.class);
+        return kryo;
+    }, (Class<List<Word>>) (Class<?>) ArrayList.class);
+
+    public static void main(String[] args) throws Exception {
+        CharTrie trie = new CharTrie();
+        trie.importBinary(Paths.get(FormatBenchmark.class.getResource("/dictionary.bin").toURI()));
+        List<Word> words = trie.entries().collect(Collectors.toCollection(ArrayList::new));
+
+        ByteArrayOutputStream legacy = new ByteArrayOutputStream();
+        try (GZIPOutputStream outputStream = new GZIPOutputStream(legacy)) {
+            WORD_LIST_SERIALIZER.write(words, outputStream);
+        }
+
+        ByteArrayOutputStream batches = new ByteArrayOutputStream();
+        write(words, batches);
+
+        ByteArrayOutputStream gzippedBatches = new ByteArrayOutputStream();
+        write(words, new GZIPOutputStream(gzippedBatches));
+
+        System.out.printf("words = %,d\n", words.size());
+        report("gzipped word list", legacy.toByteArray(), words.size(), bytes -> {
+            try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                return WORD_LIST_SERIALIZER.read(inputStream).size();
+            }
+        });
+        report("front-coded batches", batches.toByteArray(), words.size(),
+                bytes -> read(new ByteArrayInputStream(bytes)));
+        report("gzipped front-coded batches", gzippedBatches.toByteArray(), words.size(),
+                bytes -> read(new GZIPInputStream(new ByteArrayInputStream(bytes))));
+    }
+
+    private static void write(List<Word> words, OutputStream outputStream) throws IOException {
+        try (WordBatches.Writer writer = new WordBatches.Writer(outputStream)) {
+            for (Word word : words) {
+                writer.write(word.getValue(), word.getFrequency());
+            }
+            writer.finish();
+        }
+    }
+
+    private static int read(InputStream inputStream) throws IOException {
+        int[] count = {0};
+        try (DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(inputStream))) {
+            dataInputStream.readInt();
+            WordBatches.read(dataInputStream, (v, f) -> count[0]++);
+        }
+        return count[0];
+    }
+
+    private static void report(String name, byte[] bytes, int words, Decoder decoder) throws IOException {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long t = System.nanoTime();
+            if (decoder.decode(bytes) != words) {
+                throw new IllegalStateException(name + ": word count mismatch");
+            }
+            best = Math.min(best, System.nanoTime() - t);
+        }
+        System.out.printf("%-28s size = %,10d bytes (%.2f bytes/word), decode = %,7.1f ms (%,.0f ns/word)\n",
+                name, bytes.length, (double) bytes.length / words, best / 1e6, (double) best / words);
+    }
+
+    private interface Decoder {
+
+        int decode(byte[] bytes) throws IOException;
+
+    }
+
+}
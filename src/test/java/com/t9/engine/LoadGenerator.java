@@ -0,0 +1,293 @@
+package com.t9.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+
+/**
+ * Replays keystroke traces against the bundled dictionary from concurrent simulated users, and reports throughput
+ * and latency per keystroke.
+ * <p>
+ * A trace is a line of keys: digits 2..9 extend the input, '&lt;' is a backspace and a space commits the word.
+ * Every key but a space (or a backspace that empties the input) asks for the first page of suggestions.
+ * Traces are read from a file, or generated: words drawn from the dictionary with a Zipf distribution over
+ * their frequency rank, typed key by key, with occasional mistyped keys that are backspaced.
+ * <p>
+ * Keystrokes are scheduled at a fixed rate, split evenly among the users, and the latency of a keystroke is
+ * measured from its scheduled time, so a saturated engine shows up as queueing delay rather than a lower rate.
+ * Keystrokes of the warmup period are replayed but not measured, and those still pending when it ends are dropped.
+ * <p>
+ * Suggestions are asked of the engine in process, or of a {@link com.t9.server.SuggestionServer} at the specified
+ * URL, in which case the dictionary is still loaded locally to generate the traces.
+ * <p>
+ * usage: LoadGenerator [-users 8] [-rate 1000 keystrokes/s] [-seconds 20] [-warmup 5 seconds] [-delta 1]
+ * [-zipf 1.0] [-traces file to replay] [-save file to save the generated traces to]
+ * [-url base URL of a suggestion server, e.g. http://127.0.0.1:8080]
+ *
+ * @author ahmad
+ */
+public final class LoadGenerator {
+
+    private static final int PAGE_SIZE = 10;
+    private static final int TRACES = 1000;
+    private static final int WORDS_PER_TRACE = 50;
+    private static final double TYPO_PROBABILITY = 0.05;
+
+    public static void main(String[] args) throws Exception {
+        int users = 8, rate = 1000, seconds = 20, warmup = 5, delta = 1;
+        double zipf = 1.0;
+        String traceFile = null, saveFile = null, url = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-users":
+                    users = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-rate":
+                    rate = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-seconds":
+                    seconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-delta":
+                    delta = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-zipf":
+                    zipf = Double.parseDouble(args[i + 1]);
+                    break;
+                case "-traces":
+                    traceFile = args[i + 1];
+                    break;
+                case "-save":
+                    saveFile = args[i + 1];
+                    break;
+                case "-url":
+                    url = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.print("Loading dictionary... ");
+        CharTrie trie = DictionaryImage.load();
+        System.out.println("done.");
+
+        List<String> traces;
+        if (traceFile != null) {
+            traces = Files.readAllLines(Paths.get(traceFile), StandardCharsets.UTF_8);
+        } else {
+            traces = generate(trie, zipf, new Random(42));
+            if (saveFile != null) {
+                Files.write(Paths.get(saveFile), traces, StandardCharsets.UTF_8);
+            }
+        }
+        System.out.printf("traces = %d, users = %d, target rate = %,d keystrokes/s, duration = %d s (+ %d s warmup), "
+                + "delta = %d\n", traces.size(), users, rate, seconds, warmup, delta);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long intervalNanos = TimeUnit.SECONDS.toNanos(users) / rate;
+        long begin = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long start = begin + TimeUnit.SECONDS.toNanos(warmup);
+        long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        User[] simulated = new User[users];
+        for (int u = 0; u < users; u++) {
+            // users are staggered over the interval, so that their keystrokes do not arrive in bursts
+            simulated[u] = new User(trie, url, delta, traces, u, begin + intervalNanos * u / users, intervalNanos, start,
+                    end, latency);
+            simulated[u].start();
+        }
+        long keystrokes = 0, suggestions = 0, max = 0;
+        for (User user : simulated) {
+            user.join();
+            keystrokes += user.keystrokes;
+            suggestions += user.suggestions;
+            max = Math.max(max, user.maxLatency);
+        }
+        double elapsed = (end - start) / 1e9;
+        System.out.printf("keystrokes = %,d (%,.0f/s), suggestions = %,d (%,.0f/s), behind schedule = %,d\n",
+                keystrokes, keystrokes / elapsed, suggestions, suggestions / elapsed,
+                (long) (elapsed * rate) - keystrokes);
+        System.out.printf("latency per keystroke: p50 = %,d us, p99 = %,d us, p99.9 = %,d us, max = %,d us\n",
+                Math.min(latency.percentile(50), max) / 1000, Math.min(latency.percentile(99), max) / 1000,
+                Math.min(latency.percentile(99.9), max) / 1000, max / 1000);
+    }
+
+    /**
+     * Generates traces of words drawn from the dictionary.
+     *
+     * @param trie   the dictionary
+     * @param s      the exponent of the Zipf distribution
+     * @param random the source of randomness
+     * @return the traces
+     */
+    private static List<String> generate(CharTrie trie, double s, Random random) {
+        List<String> codes = trie.entries()
+                .filter(word -> WordSuggester.toDigits(word.getValue()) != null)
+                .sorted((a, b) -> b.getFrequency() != a.getFrequency()
+                        ? Integer.compare(b.getFrequency(), a.getFrequency()) : a.getValue().compareTo(b.getValue()))
+                .map(word -> WordSuggester.toDigits(word.getValue()))
+                .collect(Collectors.toList());
+        double[] cumulative = new double[codes.size()];
+        double sum = 0;
+        for (int rank = 0; rank < cumulative.length; rank++) {
+            cumulative[rank] = sum += 1 / Math.pow(rank + 1, s);
+        }
+
+        List<String> traces = new ArrayList<>(TRACES);
+        StringBuilder trace = new StringBuilder();
+        for (int t = 0; t < TRACES; t++) {
+            trace.setLength(0);
+            for (int w = 0; w < WORDS_PER_TRACE; w++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                String code = codes.get(rank < 0 ? Math.min(-rank - 1, codes.size() - 1) : rank);
+                for (int i = 0; i < code.length(); i++) {
+                    if (random.nextDouble() < TYPO_PROBABILITY) {
+                        trace.append((char) ('2' + random.nextInt(8))).append('<');
+                    }
+                    trace.append(code.charAt(i));
+                }
+                trace.append(' ');
+            }
+            traces.add(trace.toString());
+        }
+        return traces;
+    }
+
+    private static final class User extends Thread {
+
+        private final CharTrie trie;
+        private final String url;
+        private final int delta;
+        private final List<String> traces;
+        private final long intervalNanos;
+        private final long start;
+        private final long end;
+        private final LatencyHistogram latency;
+
+        private int trace;
+        private long next;
+
+        private long keystrokes;
+        private long suggestions;
+        private long maxLatency;
+
+        /**
+         * @param url   the base URL of the suggestion server, or null to suggest in process
+         * @param first the scheduled time of the first keystroke
+         * @param start the time from which keystrokes are measured
+         * @param end   the time at which replaying stops
+         */
+        private User(CharTrie trie, String url, int delta, List<String> traces, int id, long first,
+                     long intervalNanos, long start, long end, LatencyHistogram latency) {
+            super("user-" + id);
+            this.trie = trie;
+            this.url = url;
+            this.delta = delta;
+            this.traces = traces;
+            this.trace = id % traces.size();
+            this.next = first;
+            this.intervalNanos = intervalNanos;
+            this.start = start;
+            this.end = end;
+            this.latency = latency;
+        }
+
+        @Override
+        public void run() {
+            StringBuilder input = new StringBuilder();
+            while (true) {
+                String keys = traces.get(trace);
+                trace = (trace + 1) % traces.size();
+                input.setLength(0);
+                for (int i = 0; i < keys.length(); i++) {
+                    if (next >= end || System.nanoTime() >= end) {
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    if (next < start && now >= start) {
+                        // the backlog of the warmup is skipped, keeping the phase of the schedule
+                        next += (start - next + intervalNanos - 1) / intervalNanos * intervalNanos;
+                    }
+                    while ((now = System.nanoTime()) < next) {
+                        LockSupport.parkNanos(next - now);
+                    }
+                    if (type(input, keys.charAt(i))) {
+                        suggest(input.toString());
+                        if (next >= start) {
+                            suggestions++;
+                        }
+                    }
+                    if (next >= start) {
+                        long nanos = System.nanoTime() - next;
+                        latency.record(nanos);
+                        maxLatency = Math.max(maxLatency, nanos);
+                        keystrokes++;
+                    }
+                    next += intervalNanos;
+                }
+            }
+        }
+
+        private void suggest(String input) {
+            if (url == null) {
+                WordSuggester.suggest(trie, input, delta).limit(PAGE_SIZE).collect(Collectors.toList());
+                return;
+            }
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(url + "/suggest?digits=" + input
+                        + "&delta=" + delta + "&k=" + PAGE_SIZE).openConnection();
+                if (connection.getResponseCode() != 200) {
+                    throw new IOException("HTTP " + connection.getResponseCode() + " for " + input);
+                }
+                // the response is read to the end, so that the connection is kept alive
+                try (InputStream inputStream = connection.getInputStream()) {
+                    byte[] buffer = new byte[4096];
+                    while (inputStream.read(buffer) > 0) ;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Applies the specified key to the input.
+         *
+         * @return true if the input is to be suggested for
+         */
+        private static boolean type(StringBuilder input, char key) {
+            switch (key) {
+                case ' ':
+                    input.setLength(0);
+                    return false;
+                case '<':
+                    if (input.length() > 0) {
+                        input.setLength(input.length() - 1);
+                    }
+                    return input.length() > 0;
+                default:
+                    if (key < '2' || key > '9') {
+                        throw new IllegalArgumentException("Invalid key in trace: '" + key + "'");
+                    }
+                    input.append(key);
+                    return true;
+            }
+        }
+
+    }
+
+}
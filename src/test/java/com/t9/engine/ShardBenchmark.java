@@ -0,0 +1,127 @@
+package com.t9.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the throughput of a mixed load of puts and suggestions against the number of client threads, on a
+ * single CharTrie and on ShardedDictionaries of the bundled dictionary partitioned by character and by digit.
+ * Each client puts random words of the dictionary and asks for the first page of suggestions for prefixes of their
+ * codes, the specified percentage of its operations being puts.
+ * <p>
+ * usage: ShardBenchmark [-writes 20 percent] [-seconds 5] [-delta 1] [-threads 1 worker per shard]
+ *
+ * @author ahmad
+ */
+public final class ShardBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+
+    public static void main(String[] args) throws Exception {
+        int writes = 20, seconds = 5, delta = 1, threadsPerShard = 1;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-writes":
+                    writes = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-seconds":
+                    seconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-delta":
+                    delta = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-threads":
+                    threadsPerShard = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.print("Loading dictionary... ");
+        CharTrie trie = DictionaryImage.load();
+        List<String> words = trie.entries()
+                .map(Word::getValue)
+                .filter(word -> WordSuggester.toDigits(word) != null)
+                .collect(Collectors.toList());
+        System.out.println("done.");
+
+        System.out.printf("writes = %d%%, delta = %d, workers per shard = %d\n", writes, delta, threadsPerShard);
+        System.out.printf("%-10s %8s %14s\n", "engine", "clients", "ops/s");
+        int d = delta, w = writes;
+        for (int clients = 1; clients <= 2 * Runtime.getRuntime().availableProcessors(); clients *= 2) {
+            run("chartrie", clients, seconds, words, w, new Engine() {
+                @Override
+                public void put(String word) {
+                    trie.put(word, 1);
+                }
+
+                @Override
+                public void suggest(String input) {
+                    WordSuggester.suggest(trie, input, d).limit(PAGE_SIZE).count();
+                }
+            });
+            for (ShardedDictionary.Partitioning partitioning : ShardedDictionary.Partitioning.values()) {
+                try (ShardedDictionary sharded = ShardedDictionary.of(trie, partitioning, threadsPerShard)) {
+                    run(partitioning.name().toLowerCase(), clients, seconds, words, w, new Engine() {
+                        @Override
+                        public void put(String word) {
+                            sharded.put(word, 1);
+                        }
+
+                        @Override
+                        public void suggest(String input) {
+                            sharded.suggest(input, d).limit(PAGE_SIZE).count();
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    private static void run(String name, int clients, int seconds, List<String> words, int writes, Engine engine)
+            throws InterruptedException {
+        // the first second is a warmup
+        long warmup = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long end = warmup + TimeUnit.SECONDS.toNanos(seconds);
+        LongAdder operations = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Random random = new Random(c);
+            Thread thread = new Thread(() -> {
+                long now;
+                while ((now = System.nanoTime()) < end) {
+                    String word = words.get(random.nextInt(words.size()));
+                    if (random.nextInt(100) < writes) {
+                        engine.put(word);
+                    } else {
+                        String code = WordSuggester.toDigits(word);
+                        engine.suggest(code.substring(0, 1 + random.nextInt(Math.min(code.length(), 6))));
+                    }
+                    if (now >= warmup) {
+                        operations.increment();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.printf("%-10s %8d %,14.0f\n", name, clients, operations.sum() / (double) seconds);
+    }
+
+    private interface Engine {
+
+        void put(String word);
+
+        void suggest(String input);
+
+    }
+
+}
@@ -0,0 +1,251 @@
+package com.t9.server;
+
+import com.t9.engine.CharTrie;
+import com.t9.engine.DictionaryImage;
+import com.t9.engine.Word;
+import com.t9.engine.WordSuggester;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs a cluster of {@link ClusterWorker} JVMs on this machine, partitioning the bundled dictionary, and checks a
+ * {@link ClusterCoordinator} against the dictionary in this JVM:
+ * <ol>
+ * <li>the suggestions of the cluster for random inputs have the frequencies of those of the whole dictionary,</li>
+ * <li>a learned word is suggested,</li>
+ * <li>while a worker is killed, the suggestions of its range are rerouted to another worker of the range if it has
+ * one, or are partial otherwise, and those of other ranges are complete,</li>
+ * <li>once the worker is restarted on the same port, the suggestions of its range are complete again.</li>
+ * </ol>
+ * Exits with status 1 if a check fails.
+ * <p>
+ * usage: LocalCluster [-partitions 3] [-replicas 1 workers per partition] [-queries 1000] [-delta 1]
+ * [-timeout 2000 ms]
+ *
+ * @author ahmad
+ */
+public final class LocalCluster {
+
+    private static final int K = 10;
+
+    private final List<Process> processes = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int partitions = 3, replicas = 1, queries = 1000, delta = 1, timeout = 2000;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-partitions":
+                    partitions = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-replicas":
+                    replicas = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-queries":
+                    queries = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-delta":
+                    delta = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-timeout":
+                    timeout = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.print("Loading dictionary... ");
+        CharTrie trie = DictionaryImage.load();
+        System.out.println("done.");
+        List<DigitRange> ranges = DigitRange.split(trie, partitions);
+
+        LocalCluster cluster = new LocalCluster();
+        boolean passed;
+        try {
+            Map<DigitRange, List<InetSocketAddress>> workers = new LinkedHashMap<>();
+            for (DigitRange range : ranges) {
+                List<InetSocketAddress> addresses = new ArrayList<>();
+                for (int r = 0; r < replicas; r++) {
+                    addresses.add(cluster.startWorker(range, freePort()));
+                }
+                workers.put(range, addresses);
+            }
+            try (ClusterCoordinator coordinator = new ClusterCoordinator(workers, timeout)) {
+                passed = cluster.check(trie, coordinator, workers, queries, delta);
+                System.out.printf("requests = %,d, partial = %,d, reroutes = %,d, connections = %,d\n",
+                        coordinator.getRequests(), coordinator.getPartialResults(), coordinator.getReroutes(),
+                        coordinator.getReconnects());
+            }
+        } finally {
+            cluster.stopAll();
+        }
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private boolean check(CharTrie trie, ClusterCoordinator coordinator,
+                          Map<DigitRange, List<InetSocketAddress>> workers, int queries, int delta)
+            throws Exception {
+        boolean passed = true;
+        List<String> inputs = inputs(trie, queries, new Random(42));
+
+        long start = System.nanoTime();
+        int mismatches = 0;
+        for (String input : inputs) {
+            ClusterCoordinator.Result result = coordinator.suggest(input, delta, K).get();
+            if (result.isPartial() || !sameRanking(result.getWords(), expected(trie, input, delta))) {
+                mismatches++;
+            }
+        }
+        System.out.printf("%,d suggestions in %,d ms, %d mismatched\n", inputs.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), mismatches);
+        passed &= mismatches == 0;
+
+        String word = "zyzzyvaq";
+        coordinator.learn(word, 1_000_000).get();
+        List<Word> learned = coordinator.suggest(WordSuggester.toDigits(word), 0, K).get().getWords();
+        boolean suggested = !learned.isEmpty() && learned.get(0).getValue().equals(word);
+        System.out.println("learned word suggested: " + suggested);
+        passed &= suggested;
+
+        // kills the first worker of the last partition
+        DigitRange killed = coordinator.getRanges().get(coordinator.getRanges().size() - 1);
+        InetSocketAddress address = workers.get(killed).get(0);
+        boolean replicated = workers.get(killed).size() > 1;
+        Process process = processes.remove(indexOf(killed, 0, workers));
+        process.destroyForcibly().waitFor();
+        int wrong = 0;
+        for (String input : inputs) {
+            ClusterCoordinator.Result result = coordinator.suggest(input, delta, K).get();
+            boolean affected = !replicated && killed.overlaps(input);
+            if (result.isPartial() != affected
+                    || !affected && !sameRanking(result.getWords(), expected(trie, input, delta))) {
+                wrong++;
+            }
+        }
+        System.out.printf("worker of %s killed: %d of %,d suggestions not %s\n", killed, wrong, inputs.size(),
+                replicated ? "rerouted" : "partial as expected");
+        passed &= wrong == 0;
+
+        startWorker(killed, address.getPort());
+        String input = inputs.stream().filter(killed::overlaps).findFirst().orElse(killed.getFrom());
+        long restarted = System.nanoTime();
+        boolean recovered = false;
+        while (!recovered && System.nanoTime() - restarted < TimeUnit.SECONDS.toNanos(10)) {
+            ClusterCoordinator.Result result = coordinator.suggest(input, delta, K).get();
+            recovered = !result.isPartial() && sameRanking(result.getWords(), expected(trie, input, delta));
+            if (!recovered) {
+                Thread.sleep(50);
+            }
+        }
+        System.out.printf("worker of %s restarted: %s in %,d ms\n", killed, recovered ? "recovered" : "not recovered",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - restarted));
+        passed &= recovered;
+        return passed;
+    }
+
+    private int indexOf(DigitRange range, int replica, Map<DigitRange, List<InetSocketAddress>> workers) {
+        int index = 0;
+        for (Map.Entry<DigitRange, List<InetSocketAddress>> e : workers.entrySet()) {
+            if (e.getKey().equals(range)) {
+                return index + replica;
+            }
+            index += e.getValue().size();
+        }
+        throw new IllegalArgumentException();
+    }
+
+    private static List<Word> expected(CharTrie trie, String input, int delta) {
+        return WordSuggester.suggest(trie, input, delta).limit(K).collect(Collectors.toList());
+    }
+
+    /**
+     * Words of equal frequencies may be ordered differently, and those of the lowest frequency may differ.
+     */
+    private static boolean sameRanking(List<Word> actual, List<Word> expected) {
+        if (actual.size() != expected.size()) {
+            return false;
+        }
+        for (int i = 0; i < actual.size(); i++) {
+            if (actual.get(i).getFrequency() != expected.get(i).getFrequency()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<String> inputs(CharTrie trie, int count, Random random) {
+        List<String> codes = trie.entries()
+                .map(word -> WordSuggester.toDigits(word.getValue()))
+                .filter(code -> code != null)
+                .collect(Collectors.toList());
+        List<String> inputs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String code = codes.get(random.nextInt(codes.size()));
+            inputs.add(code.substring(0, 1 + random.nextInt(Math.min(code.length(), 6))));
+        }
+        return inputs;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Starts a worker JVM of the specified range, and waits until it serves.
+     */
+    private InetSocketAddress startWorker(DigitRange range, int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ClusterWorker.class.getName());
+        command.add("-port");
+        command.add(String.valueOf(port));
+        command.add("-threads");
+        command.add("2");
+        command.add("-from");
+        command.add(range.getFrom());
+        if (range.getTo() != null) {
+            command.add("-to");
+            command.add(range.getTo());
+        }
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        processes.add(process);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (line == null || !line.startsWith("Serving")) {
+            throw new IOException("worker of " + range + " failed to start");
+        }
+        System.out.println(line);
+        return new InetSocketAddress("127.0.0.1", port);
+    }
+
+    private void stopAll() throws InterruptedException {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            process.waitFor();
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+package com.t9.server;
+
+import com.t9.engine.CharTrie;
+import com.t9.engine.DictionaryImage;
+import com.t9.engine.Word;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the HTTP and binary protocols over loopback: both servers run in this JVM on the bundled dictionary,
+ * and a fixed number of connections ask for suggestions in a closed loop, for prefixes of the codes of random
+ * words of the dictionary. Over HTTP every connection waits for each response before sending the next request;
+ * over the binary protocol every connection keeps the specified number of requests in flight.
+ * <p>
+ * usage: ProtocolBenchmark [-connections 4] [-depth 1,16 requests in flight per binary connection, one run each]
+ * [-seconds 10] [-warmup 3 seconds] [-delta 0] [-threads number of processors]
+ *
+ * @author ahmad
+ */
+public final class ProtocolBenchmark {
+
+    private static final int K = 10;
+    private static final int INPUTS = 4096;
+
+    public static void main(String[] args) throws Exception {
+        int connections = 4, seconds = 10, warmup = 3, delta = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int[] depths = {1, 16};
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-connections":
+                    connections = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-depth":
+                    depths = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "-seconds":
+                    seconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-delta":
+                    delta = Integer.parseInt(args[i + 1]);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        System.out.print("Loading dictionary... ");
+        CharTrie trie = DictionaryImage.load();
+        System.out.println("done.");
+        List<String> inputs = inputs(trie, new Random(42));
+
+        InetSocketAddress loopback = new InetSocketAddress("127.0.0.1", 0);
+        SuggestionServer http = new SuggestionServer(trie, loopback, threads, 1024);
+        BinarySuggestionServer binary = new BinarySuggestionServer(trie, loopback, threads, 1024);
+        http.start();
+        binary.start();
+        try {
+            System.out.printf("connections = %d, delta = %d, k = %d, server threads = %d\n",
+                    connections, delta, K, threads);
+            System.out.printf("%-16s %14s %12s %12s %12s\n", "protocol", "requests/s", "p50 us", "p99 us", "max us");
+            String url = "http://127.0.0.1:" + http.getAddress().getPort();
+            int d = delta;
+            run("http", connections, warmup, seconds, (c, end) -> httpLoop(url, inputs, c, d, end));
+            for (int depth : depths) {
+                run("binary, depth " + depth, connections, warmup, seconds,
+                        (c, end) -> binaryLoop(binary.getAddress(), inputs, c, d, depth, end));
+            }
+        } finally {
+            http.stop(0);
+            binary.stop(1);
+        }
+    }
+
+    /**
+     * @return prefixes of the T9 codes of random words of the specified dictionary
+     */
+    private static List<String> inputs(CharTrie trie, Random random) {
+        List<String> codes = trie.entries()
+                .map(Word::getValue)
+                .filter(word -> word.chars().allMatch(ch -> ch >= 'a' && ch <= 'z'))
+                .map(ProtocolBenchmark::toDigits)
+                .collect(Collectors.toList());
+        List<String> inputs = new ArrayList<>(INPUTS);
+        for (int i = 0; i < INPUTS; i++) {
+            String code = codes.get(random.nextInt(codes.size()));
+            inputs.add(code.substring(0, 1 + random.nextInt(Math.min(code.length(), 8))));
+        }
+        return inputs;
+    }
+
+    private static String toDigits(String word) {
+        final String keys = "22233344455566677778889999";
+        StringBuilder digits = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            digits.append(keys.charAt(word.charAt(i) - 'a'));
+        }
+        return digits.toString();
+    }
+
+    private static void run(String name, int connections, int warmup, int seconds, Loop loop) throws Exception {
+        // the warmup run is discarded
+        measure(connections, warmup, loop);
+        Latencies latencies = measure(connections, seconds, loop);
+        System.out.printf("%-16s %,14.0f %,12d %,12d %,12d\n", name, latencies.count / (double) seconds,
+                latencies.percentile(50) / 1000, latencies.percentile(99) / 1000, latencies.percentile(100) / 1000);
+    }
+
+    private static Latencies measure(int connections, int seconds, Loop loop) throws Exception {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        Latencies[] results = new Latencies[connections];
+        Thread[] threads = new Thread[connections];
+        Exception[] failure = new Exception[1];
+        for (int c = 0; c < connections; c++) {
+            int connection = c;
+            threads[c] = new Thread(() -> {
+                try {
+                    results[connection] = loop.run(connection, end);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        Latencies all = new Latencies();
+        for (Latencies result : results) {
+            all.addAll(result);
+        }
+        return all;
+    }
+
+    private static Latencies httpLoop(String url, List<String> inputs, int connection, int delta, long end)
+            throws IOException {
+        Latencies latencies = new Latencies();
+        byte[] buffer = new byte[4096];
+        for (int i = connection; System.nanoTime() < end; i++) {
+            long start = System.nanoTime();
+            HttpURLConnection request = (HttpURLConnection) new URL(url + "/suggest?digits="
+                    + inputs.get(i % inputs.size()) + "&delta=" + delta + "&k=" + K).openConnection();
+            if (request.getResponseCode() != 200) {
+                throw new IOException("HTTP " + request.getResponseCode());
+            }
+            try (InputStream inputStream = request.getInputStream()) {
+                while (inputStream.read(buffer) > 0) ;
+            }
+            latencies.add(System.nanoTime() - start);
+        }
+        return latencies;
+    }
+
+    private static Latencies binaryLoop(InetSocketAddress address, List<String> inputs, int connection, int delta,
+                                        int depth, long end) throws Exception {
+        Latencies latencies = new Latencies();
+        CountDownLatch done = new CountDownLatch(depth);
+        try (BinaryClient client = BinaryClient.connect(address)) {
+            Exception[] failure = new Exception[1];
+            int[] next = {connection};
+            for (int i = 0; i < depth; i++) {
+                send(client, inputs, next, delta, end, latencies, done, failure);
+            }
+            done.await();
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Sends a request, and the next one from the thread completing it, until the end time.
+     */
+    private static void send(BinaryClient client, List<String> inputs, int[] next, int delta, long end,
+                             Latencies latencies, CountDownLatch done, Exception[] failure) {
+        long start = System.nanoTime();
+        if (start >= end || failure[0] != null) {
+            done.countDown();
+            return;
+        }
+        String input;
+        synchronized (next) {
+            input = inputs.get(next[0]++ % inputs.size());
+        }
+        client.suggest(input, delta, K).whenComplete((words, e) -> {
+            if (e != null) {
+                failure[0] = new IOException(e);
+                done.countDown();
+                return;
+            }
+            latencies.add(System.nanoTime() - start);
+            send(client, inputs, next, delta, end, latencies, done, failure);
+        });
+    }
+
+    @FunctionalInterface
+    private interface Loop {
+
+        Latencies run(int connection, long end) throws Exception;
+
+    }
+
+    private static final class Latencies {
+
+        private long[] values = new long[1024];
+        private int count;
+
+        private synchronized void add(long nanos) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = nanos;
+        }
+
+        private void addAll(Latencies other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        private long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            return sorted[Math.max((int) Math.ceil(count * percentile / 100) - 1, 0)];
+        }
+
+    }
+
+}